@@ -0,0 +1,61 @@
+package com.example.viennaubahnroutefinder.benchmarks;
+
+import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import com.example.viennaubahnroutefinder.model.Graph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route enumeration with the DFS engine. The synthetic case is a small grid with pairs a few hops
+ * apart: a grid has far more simple paths within the search depth than a metro network of the same
+ * size, and larger grids take seconds per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AllRoutesBenchmark {
+
+    @Param({"vienna", "grid-5"})
+    public String network;
+
+    private final RouteFinder routeFinder = new RouteFinder();
+    private Graph graph;
+    private List<String[]> pairs;
+    private List<String[]> waypointPairs;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        graph = SyntheticNetworks.load(network);
+        graph.freeze();
+        pairs = SyntheticNetworks.pairs(graph, 64, 11, 3);
+        // Same kind of pairs, each with the midpoint of its fewest-stops route as waypoint.
+        waypointPairs = new ArrayList<>();
+        for (String[] pair : SyntheticNetworks.pairs(graph, 64, 13, 3)) {
+            List<Graph.Station> stations = routeFinder.findShortestRouteBFS(graph, pair[0], pair[1], Set.of(), List.of())
+                    .getStations();
+            waypointPairs.add(new String[]{pair[0], pair[1], stations.get(stations.size() / 2).getName()});
+        }
+    }
+
+    @Benchmark
+    public List<RouteFinder.Route> allRoutes() {
+        String[] pair = pairs.get(next);
+        next = (next + 1) % pairs.size();
+        return routeFinder.findAllRoutesDFS(graph, pair[0], pair[1], Set.of(), List.of());
+    }
+
+    @Benchmark
+    public List<RouteFinder.Route> allRoutesWithWaypoint() {
+        String[] triple = waypointPairs.get(next);
+        next = (next + 1) % waypointPairs.size();
+        return routeFinder.findAllRoutesDFS(graph, triple[0], triple[1], Set.of(), List.of(triple[2]));
+    }
+}
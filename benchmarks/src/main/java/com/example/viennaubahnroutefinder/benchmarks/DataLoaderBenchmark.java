@@ -0,0 +1,49 @@
+package com.example.viennaubahnroutefinder.benchmarks;
+
+import com.example.viennaubahnroutefinder.data.DataLoader;
+import com.example.viennaubahnroutefinder.model.Graph;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Graph construction from CSV: the bundled network from the classpath and generated grids from disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataLoaderBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class GridFile {
+        @Param({"30", "100"})
+        public int gridSize;
+
+        private Path csv;
+
+        @Setup
+        public void setUp() throws IOException {
+            csv = SyntheticNetworks.writeGridCsv(gridSize, Files.createTempFile("grid-" + gridSize, ".csv"));
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    @Benchmark
+    public Graph loadBundled() {
+        return DataLoader.loadGraph();
+    }
+
+    @Benchmark
+    public Graph loadGridFromFile(GridFile grid) throws IOException {
+        return DataLoader.loadGraph(grid.csv);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.viennaubahnroutefinder.benchmarks;
+
+import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import com.example.viennaubahnroutefinder.model.Graph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-route searches over a fixed set of seeded origin/destination pairs; each invocation routes the
+ * next pair so results are not dominated by one lucky query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteFinderBenchmark {
+
+    @Param({"vienna", "grid-30", "grid-100", "net-10000", "net-100000"})
+    public String network;
+
+    private final RouteFinder routeFinder = new RouteFinder();
+    private Graph graph;
+    private List<String[]> pairs;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        graph = SyntheticNetworks.load(network);
+        graph.freeze();
+        pairs = SyntheticNetworks.pairs(graph, 256, 7, Integer.MAX_VALUE);
+    }
+
+    private String[] nextPair() {
+        String[] pair = pairs.get(next);
+        next = (next + 1) % pairs.size();
+        return pair;
+    }
+
+    @Benchmark
+    public RouteFinder.Route shortestRouteBFS() {
+        String[] pair = nextPair();
+        return routeFinder.findShortestRouteBFS(graph, pair[0], pair[1], Set.of(), List.of());
+    }
+
+    @Benchmark
+    public RouteFinder.Route shortestDistance() {
+        String[] pair = nextPair();
+        return routeFinder.findShortestDistanceRoute(graph, pair[0], pair[1], Set.of(), List.of(), 0);
+    }
+
+    @Benchmark
+    public RouteFinder.Route shortestDistanceWithPenalty() {
+        String[] pair = nextPair();
+        return routeFinder.findShortestDistanceRoute(graph, pair[0], pair[1], Set.of(), List.of(), 2.0);
+    }
+}
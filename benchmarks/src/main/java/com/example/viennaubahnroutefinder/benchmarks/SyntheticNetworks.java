@@ -0,0 +1,142 @@
+package com.example.viennaubahnroutefinder.benchmarks;
+
+import com.example.viennaubahnroutefinder.data.DataLoader;
+import com.example.viennaubahnroutefinder.data.NetworkGenerator;
+import com.example.viennaubahnroutefinder.model.Graph;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Networks the benchmarks run on: the bundled Vienna network ({@code "vienna"}), a seeded
+ * {@code size x size} grid ({@code "grid-<size>"}) where every row and every column is a line, or a
+ * grid-plus-radial network of about {@code n} stations from {@link NetworkGenerator} ({@code "net-<n>"}).
+ */
+final class SyntheticNetworks {
+
+    private SyntheticNetworks() {
+    }
+
+    static Graph load(String name) {
+        if (name.equals("vienna")) {
+            return DataLoader.loadGraph();
+        }
+        if (name.startsWith("grid-")) {
+            return grid(Integer.parseInt(name.substring("grid-".length())), 42);
+        }
+        if (name.startsWith("net-")) {
+            return NetworkGenerator.builder(Integer.parseInt(name.substring("net-".length()))).seed(42).build().toGraph();
+        }
+        throw new IllegalArgumentException("Unknown network: " + name);
+    }
+
+    static Graph grid(int size, long seed) {
+        Random random = new Random(seed);
+        Graph graph = new Graph();
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                graph.addStation(stationName(row, col));
+            }
+        }
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (col + 1 < size) {
+                    connect(graph, random, stationName(row, col), stationName(row, col + 1), row + 1);
+                }
+                if (row + 1 < size) {
+                    connect(graph, random, stationName(row, col), stationName(row + 1, col), size + col + 1);
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Writes a grid network in the bundled CSV format so the loader can be measured on it.
+     */
+    static Path writeGridCsv(int size, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("Start,Stop,Line,Color\n");
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    if (col + 1 < size) {
+                        writer.write(stationName(row, col) + "," + stationName(row, col + 1) + "," + (row + 1) + ",grey\n");
+                    }
+                    if (row + 1 < size) {
+                        writer.write(stationName(row, col) + "," + stationName(row + 1, col) + "," + (size + col + 1) + ",grey\n");
+                    }
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Seeded origin/destination pairs, optionally limited to pairs at most {@code maxHops} connections apart
+     * so that route enumeration stays tractable. A limited destination is drawn from the stations a
+     * breadth-first search from the origin reaches within the limit.
+     */
+    static List<String[]> pairs(Graph graph, int count, long seed, int maxHops) {
+        List<String> names = new ArrayList<>(graph.getAllStations().keySet());
+        Collections.sort(names);
+        Random random = new Random(seed);
+        List<String[]> pairs = new ArrayList<>(count);
+        while (pairs.size() < count) {
+            String from = names.get(random.nextInt(names.size()));
+            String to;
+            if (maxHops == Integer.MAX_VALUE) {
+                to = names.get(random.nextInt(names.size()));
+            } else {
+                List<String> nearby = within(graph.getStation(from), maxHops);
+                if (nearby.isEmpty()) {
+                    continue;
+                }
+                to = nearby.get(random.nextInt(nearby.size()));
+            }
+            if (!from.equals(to)) {
+                pairs.add(new String[]{from, to});
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Names of the stations at most {@code maxHops} connections from {@code origin}, without the origin,
+     * sorted so the draw does not depend on iteration order.
+     */
+    private static List<String> within(Graph.Station origin, int maxHops) {
+        Map<Graph.Station, Integer> hops = new HashMap<>();
+        hops.put(origin, 0);
+        Deque<Graph.Station> queue = new ArrayDeque<>();
+        queue.add(origin);
+        List<String> names = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            Graph.Station station = queue.poll();
+            int next = hops.get(station) + 1;
+            if (next > maxHops) {
+                continue;
+            }
+            for (Graph.Station neighbour : station.getConnections().keySet()) {
+                if (hops.putIfAbsent(neighbour, next) == null) {
+                    names.add(neighbour.getName());
+                    queue.add(neighbour);
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static void connect(Graph graph, Random random, String from, String to, int line) {
+        graph.addConnection(from, to, line, "grey");
+        graph.setConnectionDistance(from, to, 0.5 + random.nextDouble() * 1.5);
+    }
+
+    private static String stationName(int row, int col) {
+        return "G" + row + "_" + col;
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.GraphStore;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous front end to {@link RouteFinder} for service use.
+ *
+ * <p>Every search runs on the supplied executor against a snapshot pinned from the {@link GraphStore}
+ * for its whole duration, under its own {@link SearchContext}. Cancelling the returned future cancels
+ * the search; when the deadline passes, the future completes normally with the best routes found so far
+ * and {@link Result#isComplete()} is false. Complete results are shared through the optional
+ * {@link RouteCache}, and identical searches without a deadline are coalesced; partial results are
+ * never cached.</p>
+ *
+ * <p>With a {@link QueryLog} set, every answered search is logged after the cache lookup, hits included,
+ * so a replay sees the real traffic mix.</p>
+ */
+public class AsyncRouteFinder {
+
+    public static final class Result {
+        private final List<RouteFinder.Route> routes;
+        private final boolean complete;
+        private final boolean cached;
+        private final long graphVersion;
+
+        private Result(List<RouteFinder.Route> routes, boolean complete, boolean cached, long graphVersion) {
+            this.routes = routes;
+            this.complete = complete;
+            this.cached = cached;
+            this.graphVersion = graphVersion;
+        }
+
+        public List<RouteFinder.Route> getRoutes() {
+            return routes;
+        }
+
+        /**
+         * Shortest or first route of the result, or null if none was found.
+         */
+        public RouteFinder.Route getRoute() {
+            return routes.isEmpty() ? null : routes.get(0);
+        }
+
+        /**
+         * False if the search was cut short by its deadline and the routes are best-so-far.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * True if the routes came from the cache, or from an identical search that was already running.
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        public long getGraphVersion() {
+            return graphVersion;
+        }
+    }
+
+    private final GraphStore graphStore;
+    private final RouteFinder routeFinder;
+    private final RouteCache routeCache;
+    private final Executor executor;
+    private volatile QueryLog queryLog;
+    private volatile String queryLogNetwork;
+
+    /**
+     * @param routeCache shared result cache, or null to always search
+     */
+    public AsyncRouteFinder(GraphStore graphStore, RouteFinder routeFinder, RouteCache routeCache, Executor executor) {
+        this.graphStore = graphStore;
+        this.routeFinder = routeFinder;
+        this.routeCache = routeCache;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts appending every answered search to {@code queryLog}, or stops with null. Each entry is stamped
+     * with {@code network}, the id of the network this finder serves (or null), so a log shared by several
+     * networks can be replayed against the right graph. The caller owns the log.
+     */
+    public void setQueryLog(QueryLog queryLog, String network) {
+        this.queryLogNetwork = network;
+        this.queryLog = queryLog;
+    }
+
+    public CompletableFuture<RouteFinder.Route> findRoute(RouteFinder.Algorithm algorithm, RouteQuery query,
+                                                          Duration deadline) {
+        return search(algorithm, query, deadline, route -> { }).thenApply(Result::getRoute);
+    }
+
+    public CompletableFuture<List<RouteFinder.Route>> findAllRoutes(RouteQuery query, Duration deadline) {
+        return search(RouteFinder.Algorithm.ALL_ROUTES_DFS, query, deadline, route -> { })
+                .thenApply(Result::getRoutes);
+    }
+
+    /**
+     * Starts a search and returns immediately.
+     *
+     * @param deadline time budget from now, or null for none
+     * @param onRoute  receives routes on the search thread as they are found (not for cache hits)
+     */
+    public CompletableFuture<Result> search(RouteFinder.Algorithm algorithm, RouteQuery query,
+                                            Duration deadline, Consumer<RouteFinder.Route> onRoute) {
+        SearchContext context = new SearchContext(deadline);
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                context.cancel();
+            }
+        });
+
+        executor.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            try (GraphStore.Snapshot snapshot = graphStore.acquire()) {
+                long startNanos = System.nanoTime();
+                Result result = run(snapshot.getGraph(), algorithm, query, context, onRoute);
+                QueryLog log = queryLog;
+                if (log != null) {
+                    log.record(startNanos, RouteMetrics.Engine.of(algorithm), queryLogNetwork, query,
+                            result.routes, !result.complete, result.cached);
+                }
+                future.complete(result);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private Result run(Graph graph, RouteFinder.Algorithm algorithm, RouteQuery query,
+                       SearchContext context, Consumer<RouteFinder.Route> onRoute) {
+        if (routeCache == null) {
+            List<RouteFinder.Route> routes = routeFinder.findRoutes(graph, algorithm, query, context, onRoute);
+            return new Result(routes, !context.isStopped(), false, graph.getVersion());
+        }
+
+        RouteCache.Key key = new RouteCache.Key(algorithm, query, graph.getVersion());
+
+        if (!context.hasDeadline()) {
+            // Without a deadline the result can only be partial if cancelled, so identical searches may share it.
+            // Cancelling throws out of the shared computation; the searches waiting on it then run their own.
+            AtomicBoolean searched = new AtomicBoolean();
+            List<RouteFinder.Route> routes = routeCache.get(key, () -> {
+                searched.set(true);
+                List<RouteFinder.Route> found = routeFinder.findRoutes(graph, algorithm, query, context, onRoute);
+                if (context.isStopped()) {
+                    throw new CancellationException("Search cancelled");
+                }
+                return found;
+            });
+            return new Result(routes, true, !searched.get(), graph.getVersion());
+        }
+
+        List<RouteFinder.Route> cached = routeCache.getIfPresent(key);
+        if (cached != null) {
+            return new Result(cached, true, true, graph.getVersion());
+        }
+
+        List<RouteFinder.Route> routes = routeFinder.findRoutes(graph, algorithm, query, context, onRoute);
+        if (!context.isStopped()) {
+            routeCache.put(key, routes);
+        }
+        return new Result(routes, !context.isStopped(), false, graph.getVersion());
+    }
+}
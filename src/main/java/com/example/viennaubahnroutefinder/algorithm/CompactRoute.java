@@ -0,0 +1,122 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import com.example.viennaubahnroutefinder.model.Graph;
+
+import java.util.*;
+
+/**
+ * A {@link RouteFinder.Route} reduced to primitive arrays, for keeping many results in memory and writing
+ * them out.
+ *
+ * <p>Stations are stored as their ids in the graph the route was found on, so names and edges are
+ * resolved through that graph. Lines are stored once per leg (a run of edges on the same line) as
+ * {@code line, end} pairs, where {@code end} is the index of the station the leg arrives at. The distance
+ * and the number of line changes are computed once when the route is built.</p>
+ */
+public final class CompactRoute {
+
+    private final int[] stations;
+    private final int[] legs;
+    private final double distance;
+
+    private CompactRoute(int[] stations, int[] legs, double distance) {
+        this.stations = stations;
+        this.legs = legs;
+        this.distance = distance;
+    }
+
+    public static CompactRoute of(RouteFinder.Route route) {
+        List<Graph.Station> routeStations = route.getStations();
+        List<Graph.Edge> edges = route.getEdges();
+        int[] stations = new int[routeStations.size()];
+        for (int i = 0; i < stations.length; i++) {
+            stations[i] = routeStations.get(i).getId();
+        }
+
+        int legCount = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            if (i == 0 || edges.get(i).getLine() != edges.get(i - 1).getLine()) {
+                legCount++;
+            }
+        }
+        int[] legs = new int[legCount * 2];
+        int leg = -1;
+        for (int i = 0; i < edges.size(); i++) {
+            if (i == 0 || edges.get(i).getLine() != edges.get(i - 1).getLine()) {
+                leg++;
+                legs[leg * 2] = edges.get(i).getLine();
+            }
+            legs[leg * 2 + 1] = i + 1;
+        }
+        return new CompactRoute(stations, legs, route.getTotalDistance());
+    }
+
+    public static List<CompactRoute> of(List<RouteFinder.Route> routes) {
+        List<CompactRoute> compact = new ArrayList<>(routes.size());
+        for (RouteFinder.Route route : routes) {
+            compact.add(of(route));
+        }
+        return compact;
+    }
+
+    public int getStationCount() {
+        return stations.length;
+    }
+
+    public int getStationId(int index) {
+        return stations[index];
+    }
+
+    public Graph.Station getStation(Graph graph, int index) {
+        return graph.getStationById(stations[index]);
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public int getLineChanges() {
+        return Math.max(0, getLegCount() - 1);
+    }
+
+    public int getLegCount() {
+        return legs.length / 2;
+    }
+
+    public int getLegLine(int leg) {
+        return legs[leg * 2];
+    }
+
+    /**
+     * Index of the station where {@code leg} ends; it starts where the previous leg ends, or at 0.
+     */
+    public int getLegEnd(int leg) {
+        return legs[leg * 2 + 1];
+    }
+
+    /**
+     * Line of the edge from station {@code index} to station {@code index + 1}.
+     */
+    public int getLine(int index) {
+        int leg = 0;
+        while (legs[leg * 2 + 1] <= index) {
+            leg++;
+        }
+        return legs[leg * 2];
+    }
+
+    /**
+     * Rebuilds the full route on {@code graph}, which must be the graph (or a copy of the graph) it was
+     * found on.
+     */
+    public RouteFinder.Route toRoute(Graph graph) {
+        RouteFinder.Route route = new RouteFinder.Route();
+        Graph.Station previous = null;
+        for (int id : stations) {
+            Graph.Station station = graph.getStationById(id);
+            route.addStation(station, previous == null ? null : previous.getConnections().get(station));
+            previous = station;
+        }
+        return route;
+    }
+}
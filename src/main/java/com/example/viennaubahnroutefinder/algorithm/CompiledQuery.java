@@ -0,0 +1,119 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import com.example.viennaubahnroutefinder.model.Graph;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A {@link RouteQuery} resolved against one graph into bitmasks over station ids, line numbers and
+ * connection ids. Masks are only as long as the highest id they mention; anything beyond is unconstrained.
+ */
+public final class CompiledQuery {
+
+    /**
+     * Compiled form of a query without constraints.
+     */
+    public static final CompiledQuery UNRESTRICTED = new Builder(Set.of(), Set.of()).build();
+
+    private final long[] blockedStations;
+    private final long[] blockedConnections;
+    // Allowed lines when linesRestricted, otherwise blocked lines.
+    private final long[] lineMask;
+    private final boolean linesRestricted;
+    private final boolean edgeRules;
+
+    private CompiledQuery(long[] blockedStations, long[] blockedConnections, long[] lineMask, boolean linesRestricted) {
+        this.blockedStations = blockedStations;
+        this.blockedConnections = blockedConnections;
+        this.lineMask = lineMask;
+        this.linesRestricted = linesRestricted;
+        this.edgeRules = linesRestricted || lineMask.length > 0 || blockedConnections.length > 0;
+    }
+
+    /**
+     * Whether the query allows every station, line and connection.
+     */
+    public boolean isUnrestricted() {
+        return blockedStations.length == 0 && !edgeRules;
+    }
+
+    public boolean allowsStation(int station) {
+        return !test(blockedStations, station);
+    }
+
+    public boolean allowsLine(int line) {
+        return test(lineMask, line) == linesRestricted;
+    }
+
+    public boolean allowsConnection(int connection) {
+        return !test(blockedConnections, connection);
+    }
+
+    /**
+     * Whether a search may traverse {@code edge}: its destination, line and connection must all be allowed.
+     */
+    public boolean allows(Graph.Edge edge) {
+        return allowsStation(edge.getDestination().getId())
+                && (!edgeRules || (allowsLine(edge.getLine()) && allowsConnection(edge.getId())));
+    }
+
+    /**
+     * Same as {@link #allows(Graph.Edge)} for an edge given by its parts, e.g. from an off-heap graph.
+     */
+    public boolean allows(int destination, int line, int connection) {
+        return allowsStation(destination)
+                && (!edgeRules || (allowsLine(line) && allowsConnection(connection)));
+    }
+
+    private static boolean test(long[] mask, int bit) {
+        int word = bit >>> 6;
+        return bit >= 0 && word < mask.length && (mask[word] & (1L << bit)) != 0;
+    }
+
+    static final class Builder {
+        private long[] blockedStations = new long[0];
+        private long[] blockedConnections = new long[0];
+        private long[] lineMask = new long[0];
+        private final boolean linesRestricted;
+
+        Builder(Set<Integer> avoidLines, Set<Integer> onlyLines) {
+            this.linesRestricted = !onlyLines.isEmpty();
+            if (linesRestricted) {
+                for (int line : onlyLines) {
+                    if (!avoidLines.contains(line)) {
+                        lineMask = set(lineMask, line);
+                    }
+                }
+            } else {
+                for (int line : avoidLines) {
+                    lineMask = set(lineMask, line);
+                }
+            }
+        }
+
+        void blockStation(int station) {
+            blockedStations = set(blockedStations, station);
+        }
+
+        void blockConnection(int connection) {
+            blockedConnections = set(blockedConnections, connection);
+        }
+
+        CompiledQuery build() {
+            return new CompiledQuery(blockedStations, blockedConnections, lineMask, linesRestricted);
+        }
+
+        private static long[] set(long[] mask, int bit) {
+            if (bit < 0) {
+                return mask;
+            }
+            int word = bit >>> 6;
+            if (word >= mask.length) {
+                mask = Arrays.copyOf(mask, word + 1);
+            }
+            mask[word] |= 1L << bit;
+            return mask;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.GraphDelta;
+import com.example.viennaubahnroutefinder.model.GraphStore;
+
+import java.util.*;
+
+/**
+ * Cache of single-source shortest-path trees (plain distance, no line-change penalty) that is repaired
+ * incrementally when the network changes, in the style of Ramalingam and Reps.
+ *
+ * <p>For each cached tree, a {@link GraphDelta} is split into connections that got worse (closed or
+ * longer) and connections that got better (opened or shorter). Only the subtrees hanging below a
+ * worsened tree edge are reset; they are re-seeded from their unaffected neighbours and settled again
+ * together with the endpoints of improved connections by a Dijkstra pass that stops as soon as no
+ * distance improves. Trees that contain none of the changed connections are not touched at all.</p>
+ *
+ * <p>{@link RouteFinder} keeps one of these per instance and answers unconstrained shortest-distance legs
+ * from it. It follows a {@link GraphStore} through {@link GraphStore#addDeltaListener}, so a closure
+ * repairs the cached trees before the new version is published.</p>
+ */
+public class DynamicShortestPaths {
+
+    private static class ShortestPathTree {
+        final int source;
+        double[] distances;
+        int[] parents;
+
+        ShortestPathTree(int source, int size) {
+            this.source = source;
+            this.distances = new double[size];
+            this.parents = new int[size];
+            Arrays.fill(distances, Double.MAX_VALUE);
+            Arrays.fill(parents, -1);
+        }
+
+        void ensureCapacity(int size) {
+            if (distances.length < size) {
+                int oldSize = distances.length;
+                distances = Arrays.copyOf(distances, size);
+                parents = Arrays.copyOf(parents, size);
+                Arrays.fill(distances, oldSize, size, Double.MAX_VALUE);
+                Arrays.fill(parents, oldSize, size, -1);
+            }
+        }
+    }
+
+    private final Map<String, ShortestPathTree> trees;
+    private Graph graph;
+
+    private long treesBuilt;
+    private long treesRepaired;
+    private long treesUnaffected;
+    private long stationsRecomputed;
+
+    /**
+     * @param graph    the graph version the trees are computed on, or null until the first {@link #reset}
+     * @param maxTrees number of source trees kept; the least recently used tree is dropped beyond that
+     */
+    public DynamicShortestPaths(Graph graph, int maxTrees) {
+        this.graph = graph;
+        this.trees = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ShortestPathTree> eldest) {
+                return size() > maxTrees;
+            }
+        };
+    }
+
+    /**
+     * Shortest-distance route between two stations of {@code graph}, answered from the cached tree of
+     * {@code start}. A missing tree is built outside the lock, so queries for other sources are not held up.
+     * Returns null if either station is unknown, the end is unreachable, or the trees are on another graph
+     * than {@code graph} (see {@link #isOn}).
+     */
+    public RouteFinder.Route findRoute(Graph graph, String start, String end) {
+        Graph.Station startStation = graph.getStation(start);
+        Graph.Station endStation = graph.getStation(end);
+
+        if (startStation == null || endStation == null) {
+            return null;
+        }
+
+        ShortestPathTree tree;
+        synchronized (this) {
+            if (graph != this.graph) {
+                return null;
+            }
+            tree = trees.get(start);
+        }
+        ShortestPathTree built = tree == null ? buildTree(graph, startStation) : null;
+
+        synchronized (this) {
+            // A delta may have moved the trees on while the tree was built or before the path is read.
+            if (graph != this.graph) {
+                return null;
+            }
+            if (built != null) {
+                tree = trees.putIfAbsent(start, built);
+                if (tree == null) {
+                    tree = built;
+                    treesBuilt++;
+                }
+            }
+            tree.ensureCapacity(graph.getStationIdLimit());
+
+            if (tree.distances[endStation.getId()] == Double.MAX_VALUE) {
+                return null;
+            }
+
+            List<Graph.Station> path = new ArrayList<>();
+            for (int id = endStation.getId(); id != -1; id = tree.parents[id]) {
+                path.add(graph.getStationById(id));
+            }
+            Collections.reverse(path);
+
+            RouteFinder.Route route = new RouteFinder.Route();
+            for (int i = 0; i < path.size(); i++) {
+                Graph.Edge edge = (i > 0) ? path.get(i - 1).getConnections().get(path.get(i)) : null;
+                route.addStation(path.get(i), edge);
+            }
+            return route;
+        }
+    }
+
+    /**
+     * Whether the cached trees describe {@code graph}.
+     */
+    public synchronized boolean isOn(Graph graph) {
+        return this.graph == graph;
+    }
+
+    /**
+     * Moves the cache from {@code previous} to {@code updated}, which is {@code previous} with {@code delta}
+     * applied, repairing the affected trees. If the cache is not on {@code previous}, it is reset instead.
+     * Matches {@link GraphStore.DeltaListener}.
+     */
+    public synchronized void apply(Graph previous, Graph updated, GraphDelta delta) {
+        if (graph != previous) {
+            reset(updated);
+            return;
+        }
+        List<int[]> worse = new ArrayList<>();
+        List<int[]> better = new ArrayList<>();
+
+        for (List<String> pair : delta.getTouchedConnections()) {
+            double oldWeight = weight(previous, pair.get(0), pair.get(1));
+            double newWeight = weight(updated, pair.get(0), pair.get(1));
+            if (newWeight > oldWeight) {
+                worse.add(new int[]{previous.getStation(pair.get(0)).getId(), previous.getStation(pair.get(1)).getId()});
+            } else if (newWeight < oldWeight) {
+                better.add(new int[]{updated.getStation(pair.get(0)).getId(), updated.getStation(pair.get(1)).getId()});
+            }
+        }
+
+        List<Integer> closed = new ArrayList<>();
+        for (String name : delta.getClosedStations()) {
+            Graph.Station station = previous.getStation(name);
+            if (station != null && updated.getStation(name) == null) {
+                closed.add(station.getId());
+            }
+        }
+
+        graph = updated;
+        Iterator<Map.Entry<String, ShortestPathTree>> it = trees.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ShortestPathTree> entry = it.next();
+            if (updated.getStation(entry.getKey()) == null) {
+                it.remove();
+            } else if (repair(entry.getValue(), previous, worse, better, closed)) {
+                treesRepaired++;
+            } else {
+                treesUnaffected++;
+            }
+        }
+    }
+
+    /**
+     * Drops every cached tree and starts over on {@code graph}.
+     */
+    public synchronized void reset(Graph graph) {
+        this.graph = graph;
+        trees.clear();
+    }
+
+    public synchronized Graph getGraph() {
+        return graph;
+    }
+
+    public synchronized int getCachedTreeCount() {
+        return trees.size();
+    }
+
+    public synchronized long getTreesBuilt() {
+        return treesBuilt;
+    }
+
+    public synchronized long getTreesRepaired() {
+        return treesRepaired;
+    }
+
+    public synchronized long getTreesUnaffected() {
+        return treesUnaffected;
+    }
+
+    public synchronized long getStationsRecomputed() {
+        return stationsRecomputed;
+    }
+
+    private static ShortestPathTree buildTree(Graph graph, Graph.Station source) {
+        ShortestPathTree tree = new ShortestPathTree(source.getId(), graph.getStationIdLimit());
+        tree.distances[source.getId()] = 0.0;
+
+        PriorityQueue<RouteFinder.IndexDistance> pq = new PriorityQueue<>();
+        pq.offer(new RouteFinder.IndexDistance(source.getId(), 0.0, -1));
+        settle(graph, tree, pq);
+        return tree;
+    }
+
+    private boolean repair(ShortestPathTree tree, Graph previous, List<int[]> worse,
+                           List<int[]> better, List<Integer> closed) {
+        tree.ensureCapacity(graph.getStationIdLimit());
+
+        boolean[] affected = new boolean[tree.distances.length];
+        List<Integer> reset = new ArrayList<>();
+
+        for (int[] edge : worse) {
+            if (tree.parents[edge[1]] == edge[0]) {
+                collectSubtree(tree, previous, edge[1], affected, reset);
+            } else if (tree.parents[edge[0]] == edge[1]) {
+                collectSubtree(tree, previous, edge[0], affected, reset);
+            }
+        }
+        for (int station : closed) {
+            if (tree.distances[station] != Double.MAX_VALUE) {
+                collectSubtree(tree, previous, station, affected, reset);
+            }
+        }
+
+        for (int station : reset) {
+            tree.distances[station] = Double.MAX_VALUE;
+            tree.parents[station] = -1;
+        }
+
+        PriorityQueue<RouteFinder.IndexDistance> pq = new PriorityQueue<>();
+
+        // Re-seed the reset stations from neighbours whose distance is still valid.
+        for (int station : reset) {
+            Graph.Station current = graph.getStationById(station);
+            if (current == null) {
+                continue;
+            }
+            for (Graph.Edge edge : current.getConnections().values()) {
+                int neighbor = edge.getDestination().getId();
+                if (!affected[neighbor] && tree.distances[neighbor] != Double.MAX_VALUE) {
+                    double candidate = tree.distances[neighbor] + edge.getDistance();
+                    if (candidate < tree.distances[station]) {
+                        tree.distances[station] = candidate;
+                        tree.parents[station] = neighbor;
+                    }
+                }
+            }
+            if (tree.distances[station] != Double.MAX_VALUE) {
+                pq.offer(new RouteFinder.IndexDistance(station, tree.distances[station], -1));
+            }
+        }
+
+        for (int[] edge : better) {
+            relax(tree, edge[0], edge[1], pq);
+            relax(tree, edge[1], edge[0], pq);
+        }
+
+        if (reset.isEmpty() && pq.isEmpty()) {
+            return false;
+        }
+
+        stationsRecomputed += reset.size() + settle(graph, tree, pq);
+        return true;
+    }
+
+    private void collectSubtree(ShortestPathTree tree, Graph previous, int root,
+                                boolean[] affected, List<Integer> reset) {
+        if (affected[root]) {
+            return;
+        }
+        Deque<Integer> stack = new ArrayDeque<>();
+        affected[root] = true;
+        reset.add(root);
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            int station = stack.pop();
+            for (Graph.Station child : previous.getStationById(station).getConnections().keySet()) {
+                int id = child.getId();
+                if (!affected[id] && tree.parents[id] == station) {
+                    affected[id] = true;
+                    reset.add(id);
+                    stack.push(id);
+                }
+            }
+        }
+    }
+
+    private void relax(ShortestPathTree tree, int from, int to, PriorityQueue<RouteFinder.IndexDistance> pq) {
+        if (tree.distances[from] == Double.MAX_VALUE) {
+            return;
+        }
+        double newDistance = tree.distances[from] + weight(graph.getStationById(from), graph.getStationById(to));
+        if (newDistance < tree.distances[to]) {
+            tree.distances[to] = newDistance;
+            tree.parents[to] = from;
+            pq.offer(new RouteFinder.IndexDistance(to, newDistance, -1));
+        }
+    }
+
+    /**
+     * Runs Dijkstra from the queued stations until nothing improves.
+     *
+     * @return the number of distance improvements made
+     */
+    private static int settle(Graph graph, ShortestPathTree tree, PriorityQueue<RouteFinder.IndexDistance> pq) {
+        int improvements = 0;
+        while (!pq.isEmpty()) {
+            RouteFinder.IndexDistance current = pq.poll();
+
+            if (current.distance > tree.distances[current.station]) {
+                continue;
+            }
+
+            for (Graph.Edge edge : graph.getStationById(current.station).getConnections().values()) {
+                int neighbor = edge.getDestination().getId();
+                double newDistance = current.distance + edge.getDistance();
+
+                if (newDistance < tree.distances[neighbor]) {
+                    tree.distances[neighbor] = newDistance;
+                    tree.parents[neighbor] = current.station;
+                    pq.offer(new RouteFinder.IndexDistance(neighbor, newDistance, -1));
+                    improvements++;
+                }
+            }
+        }
+        return improvements;
+    }
+
+    private static double weight(Graph graph, String from, String to) {
+        return weight(graph.getStation(from), graph.getStation(to));
+    }
+
+    private static double weight(Graph.Station from, Graph.Station to) {
+        if (from == null || to == null) {
+            return Double.MAX_VALUE;
+        }
+        Graph.Edge edge = from.getConnections().get(to);
+        return edge == null ? Double.MAX_VALUE : edge.getDistance();
+    }
+}
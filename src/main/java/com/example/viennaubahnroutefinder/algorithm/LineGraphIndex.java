@@ -0,0 +1,538 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import com.example.viennaubahnroutefinder.model.Graph;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Two-level index for fewest-changes routing: a graph of lines over the station graph.
+ *
+ * <p>The upper level has one node per line. Two lines are adjacent when they stop at a common station,
+ * and the minimum number of changes between every pair of lines is precomputed. A query first works out
+ * how many changes it needs and which lines lie on some line sequence with that many changes (the
+ * corridor), using the table or, for queries with constraints, a breadth-first search over the lines
+ * and their interchange stations. Only then does it search the station graph, using only edges of
+ * corridor lines. The result is the route with the fewest changes, ties broken by distance.</p>
+ *
+ * <p>The per-state arrays of the station search are pooled and reset by bumping an epoch instead of being
+ * refilled, so a query only touches the states it reaches in the corridor. The pool holds one set of
+ * arrays per concurrent search, which also suits servers that run each request on a new virtual
+ * thread.</p>
+ *
+ * <p>Lines are assumed to be connected. When a blocked connection splits a line, the corridor may hold
+ * no route or only one with more changes. The search is then repeated over every line that such a
+ * route could use, so the result is always exact.</p>
+ *
+ * <p>Queries with waypoints search all legs at once, over (leg, station, line) states, because staying on
+ * a line through a waypoint is not a change: joining the best route of each leg could add a change at
+ * every waypoint. That search has no corridor; its heuristic is the changes still needed to reach the
+ * leg's end plus a lower bound for the legs after it.</p>
+ */
+public class LineGraphIndex {
+
+    private static final short UNREACHABLE = Short.MAX_VALUE;
+
+    private final Graph graph;
+    private final int[] lineNumbers;
+    private final Map<Integer, Integer> lineIndexes = new HashMap<>();
+    // Lines (dense indexes) serving each station id; a station-line pair is one search state.
+    private final int[] stationLineStart;
+    private final int[] stationLines;
+    // Stations of each line where at least one other line stops.
+    private final int[] interchangeStart;
+    private final int[] interchanges;
+    private final short[] changes;
+    // Dense line index of every connection id.
+    private final int[] connectionLines;
+    private final Queue<SearchState> searchStates = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Labels of the (station, line) states of one search. A label is only valid while its stamp equals the
+     * current epoch; older stamps read as unreached.
+     */
+    private static final class SearchState {
+        final int[] stamp;
+        final int[] changes;
+        final double[] distance;
+        final int[] previous;
+        final Graph.Edge[] previousEdge;
+        int epoch;
+
+        SearchState(int states) {
+            stamp = new int[states];
+            changes = new int[states];
+            distance = new double[states];
+            previous = new int[states];
+            previousEdge = new Graph.Edge[states];
+        }
+
+        void next() {
+            if (++epoch == 0) {
+                Arrays.fill(stamp, 0);
+                epoch = 1;
+            }
+        }
+
+        boolean reached(int state) {
+            return stamp[state] == epoch;
+        }
+
+        void set(int state, int changes, double distance, int previous, Graph.Edge previousEdge) {
+            stamp[state] = epoch;
+            this.changes[state] = changes;
+            this.distance[state] = distance;
+            this.previous[state] = previous;
+            this.previousEdge[state] = previousEdge;
+        }
+    }
+
+    public LineGraphIndex(Graph graph) {
+        this.graph = graph;
+        int limit = graph.getStationIdLimit();
+
+        List<Set<Integer>> linesAtStation = new ArrayList<>(Collections.nCopies(limit, (Set<Integer>) null));
+        SortedSet<Integer> allLines = new TreeSet<>();
+        for (Graph.Station station : graph.getAllStations().values()) {
+            Set<Integer> lines = new TreeSet<>();
+            for (Graph.Edge edge : station.getConnections().values()) {
+                lines.add(edge.getLine());
+            }
+            linesAtStation.set(station.getId(), lines);
+            allLines.addAll(lines);
+        }
+
+        this.lineNumbers = new int[allLines.size()];
+        int index = 0;
+        for (int line : allLines) {
+            lineNumbers[index] = line;
+            lineIndexes.put(line, index++);
+        }
+        int lineCount = lineNumbers.length;
+
+        this.stationLineStart = new int[limit + 1];
+        List<Integer> pairs = new ArrayList<>();
+        List<List<Integer>> interchangesByLine = new ArrayList<>();
+        for (int line = 0; line < lineCount; line++) {
+            interchangesByLine.add(new ArrayList<>());
+        }
+        for (int station = 0; station < limit; station++) {
+            stationLineStart[station] = pairs.size();
+            Set<Integer> lines = linesAtStation.get(station);
+            if (lines == null) {
+                continue;
+            }
+            for (int line : lines) {
+                pairs.add(lineIndexes.get(line));
+                if (lines.size() > 1) {
+                    interchangesByLine.get(lineIndexes.get(line)).add(station);
+                }
+            }
+        }
+        stationLineStart[limit] = pairs.size();
+        this.stationLines = pairs.stream().mapToInt(Integer::intValue).toArray();
+
+        this.interchangeStart = new int[lineCount + 1];
+        int total = 0;
+        for (int line = 0; line < lineCount; line++) {
+            interchangeStart[line] = total;
+            total += interchangesByLine.get(line).size();
+        }
+        interchangeStart[lineCount] = total;
+        this.interchanges = new int[total];
+        for (int line = 0; line < lineCount; line++) {
+            int offset = interchangeStart[line];
+            for (int station : interchangesByLine.get(line)) {
+                interchanges[offset++] = station;
+            }
+        }
+
+        this.connectionLines = new int[graph.getConnectionIdLimit()];
+        for (Graph.Station station : graph.getAllStations().values()) {
+            for (Graph.Edge edge : station.getConnections().values()) {
+                connectionLines[edge.getId()] = lineIndexes.get(edge.getLine());
+            }
+        }
+
+        this.changes = new short[lineCount * lineCount];
+        for (int line = 0; line < lineCount; line++) {
+            short[] distance = lineDistances(new int[]{line}, CompiledQuery.UNRESTRICTED);
+            System.arraycopy(distance, 0, changes, line * lineCount, lineCount);
+        }
+    }
+
+    /**
+     * The graph this index was built from; it is only valid for that graph.
+     */
+    public Graph getGraph() {
+        return graph;
+    }
+
+    public int getLineCount() {
+        return lineNumbers.length;
+    }
+
+    /**
+     * Fewest changes needed to get from line {@code from} to line {@code to}, or -1 if the lines are not
+     * connected. Unknown lines are never connected.
+     */
+    public int getMinChanges(int from, int to) {
+        Integer a = lineIndexes.get(from);
+        Integer b = lineIndexes.get(to);
+        if (a == null || b == null) {
+            return -1;
+        }
+        short value = changes[a * lineNumbers.length + b];
+        return value == UNREACHABLE ? -1 : value;
+    }
+
+    /**
+     * Route from {@code start} to {@code end} with the fewest line changes, then the shortest distance, or
+     * null if there is none or the search was stopped first.
+     */
+    RouteFinder.Route findRoute(Graph.Station start, Graph.Station end, CompiledQuery constraints,
+                                SearchContext context) {
+        if (start == null || end == null) {
+            return null;
+        }
+        if (start.equals(end)) {
+            RouteFinder.Route route = new RouteFinder.Route();
+            route.addStation(start, null);
+            return route;
+        }
+
+        int[] startLines = allowedLines(start.getId(), constraints);
+        int[] endLines = allowedLines(end.getId(), constraints);
+        if (startLines.length == 0 || endLines.length == 0) {
+            return null;
+        }
+
+        short[] fromStart;
+        short[] toEnd;
+        if (constraints.isUnrestricted()) {
+            fromStart = nearest(startLines);
+            toEnd = nearest(endLines);
+        } else {
+            fromStart = lineDistances(startLines, constraints);
+            toEnd = lineDistances(endLines, constraints);
+        }
+
+        int needed = UNREACHABLE;
+        for (int line : endLines) {
+            needed = Math.min(needed, fromStart[line]);
+        }
+        if (needed == UNREACHABLE) {
+            return null;
+        }
+
+        RouteFinder.Route route = stationSearch(start, end, fromStart, toEnd, needed, constraints, context);
+        if (context.isStopped() || (route != null && route.getLineChanges() == needed)) {
+            return route;
+        }
+        // The lines do not connect as the table says. A route with c changes only uses lines within c
+        // changes of both ends, so widening the corridor to the changes found keeps the result exact.
+        int bound = route != null ? route.getLineChanges() : UNREACHABLE - 1;
+        return stationSearch(start, end, fromStart, toEnd, bound, constraints, context);
+    }
+
+    /**
+     * Route through {@code stops} in order with the fewest line changes overall, then the shortest distance,
+     * or null if there is none or the search was stopped first.
+     */
+    RouteFinder.Route findRoute(List<Graph.Station> stops, CompiledQuery constraints, SearchContext context) {
+        if (stops.size() == 2) {
+            return findRoute(stops.get(0), stops.get(1), constraints, context);
+        }
+        if (stops.contains(null)) {
+            return null;
+        }
+
+        // Per leg, the changes still needed from each line to reach the leg's end, and a lower bound on the
+        // changes of the legs from each one on.
+        int legs = stops.size() - 1;
+        short[][] toStop = new short[legs][];
+        int[] remaining = new int[legs + 1];
+        for (int leg = legs - 1; leg >= 0; leg--) {
+            int[] endLines = allowedLines(stops.get(leg + 1).getId(), constraints);
+            toStop[leg] = constraints.isUnrestricted() ? nearest(endLines) : lineDistances(endLines, constraints);
+            int bound = UNREACHABLE;
+            for (int line : allowedLines(stops.get(leg).getId(), constraints)) {
+                bound = Math.min(bound, toStop[leg][line]);
+            }
+            if (bound == UNREACHABLE) {
+                return null;
+            }
+            remaining[leg] = remaining[leg + 1] + bound;
+        }
+
+        // Legs times states labels are too many to pool; a waypoint query allocates its own.
+        int states = stationLines.length;
+        SearchState labels = new SearchState(legs * states);
+        labels.next();
+        PriorityQueue<StateCost> queue = new PriorityQueue<>();
+        Graph.Station start = stops.get(0);
+        for (int j = stationLineStart[start.getId()]; j < stationLineStart[start.getId() + 1]; j++) {
+            int line = stationLines[j];
+            if (constraints.allowsLine(lineNumbers[line]) && toStop[0][line] != UNREACHABLE) {
+                labels.set(j, 0, 0, -1, null);
+                queue.offer(new StateCost(j, start, 0, toStop[0][line] + remaining[1], 0));
+                context.heapPushed();
+            }
+        }
+
+        int found = -1;
+        while (!queue.isEmpty() && !context.shouldStop()) {
+            StateCost current = queue.poll();
+            int label = current.state;
+            if (current.changes > labels.changes[label]
+                    || (current.changes == labels.changes[label] && current.distance > labels.distance[label])) {
+                continue;
+            }
+            context.nodeSettled();
+            int leg = label / states;
+            int state = label % states;
+            int line = stationLines[state];
+
+            if (current.station.equals(stops.get(leg + 1))) {
+                if (leg == legs - 1) {
+                    found = label;
+                    break;
+                }
+                // Moving on to the next leg costs nothing; going on in this one can never do better.
+                if (toStop[leg + 1][line] != UNREACHABLE) {
+                    relax(labels, queue, (leg + 1) * states + state, current.station, current.changes,
+                            current.changes + toStop[leg + 1][line] + remaining[leg + 2], current.distance, label,
+                            null, context);
+                }
+                continue;
+            }
+
+            for (Graph.Edge edge : current.station.getConnections().values()) {
+                int edgeLine = connectionLines[edge.getId()];
+                if (toStop[leg][edgeLine] == UNREACHABLE || !constraints.allows(edge)
+                        || !constraints.allowsLine(lineNumbers[edgeLine])) {
+                    continue;
+                }
+                context.edgeRelaxed();
+                int nextChanges = current.changes + (edgeLine == line ? 0 : 1);
+                relax(labels, queue, leg * states + stateOf(edge.getDestination().getId(), edgeLine),
+                        edge.getDestination(), nextChanges, nextChanges + toStop[leg][edgeLine] + remaining[leg + 1],
+                        current.distance + edge.getDistance(), label, edge, context);
+            }
+        }
+        if (found < 0) {
+            return null;
+        }
+
+        Deque<Graph.Edge> edges = new ArrayDeque<>();
+        for (int label = found; labels.previous[label] >= 0; label = labels.previous[label]) {
+            if (labels.previousEdge[label] != null) {
+                edges.push(labels.previousEdge[label]);
+            }
+        }
+        RouteFinder.Route route = new RouteFinder.Route();
+        route.addStation(start, null);
+        for (Graph.Edge edge : edges) {
+            route.addStation(edge.getDestination(), edge);
+        }
+        return route;
+    }
+
+    private static void relax(SearchState labels, PriorityQueue<StateCost> queue, int next, Graph.Station station,
+                              int changes, int estimate, double distance, int previous, Graph.Edge edge,
+                              SearchContext context) {
+        if (!labels.reached(next) || changes < labels.changes[next]
+                || (changes == labels.changes[next] && distance < labels.distance[next])) {
+            labels.set(next, changes, distance, previous, edge);
+            queue.offer(new StateCost(next, station, changes, estimate, distance));
+            context.heapPushed();
+        }
+    }
+
+    /**
+     * Per line, the fewest changes from the nearest of {@code sources}, from the precomputed table.
+     */
+    private short[] nearest(int[] sources) {
+        int lineCount = lineNumbers.length;
+        short[] distance = new short[lineCount];
+        Arrays.fill(distance, UNREACHABLE);
+        for (int source : sources) {
+            for (int line = 0; line < lineCount; line++) {
+                distance[line] = (short) Math.min(distance[line], changes[source * lineCount + line]);
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Breadth-first search over the lines from {@code sources}, changing only at allowed stations and onto
+     * allowed lines.
+     */
+    private short[] lineDistances(int[] sources, CompiledQuery constraints) {
+        int lineCount = lineNumbers.length;
+        short[] distance = new short[lineCount];
+        Arrays.fill(distance, UNREACHABLE);
+        int[] queue = new int[lineCount];
+        int head = 0;
+        int tail = 0;
+        for (int source : sources) {
+            if (distance[source] == UNREACHABLE) {
+                distance[source] = 0;
+                queue[tail++] = source;
+            }
+        }
+        while (head < tail) {
+            int line = queue[head++];
+            for (int i = interchangeStart[line]; i < interchangeStart[line + 1]; i++) {
+                int station = interchanges[i];
+                if (!constraints.allowsStation(station)) {
+                    continue;
+                }
+                for (int j = stationLineStart[station]; j < stationLineStart[station + 1]; j++) {
+                    int next = stationLines[j];
+                    if (distance[next] == UNREACHABLE && constraints.allowsLine(lineNumbers[next])) {
+                        distance[next] = (short) (distance[line] + 1);
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+        return distance;
+    }
+
+    private int[] allowedLines(int station, CompiledQuery constraints) {
+        int[] lines = new int[stationLineStart[station + 1] - stationLineStart[station]];
+        int count = 0;
+        for (int j = stationLineStart[station]; j < stationLineStart[station + 1]; j++) {
+            if (constraints.allowsLine(lineNumbers[stationLines[j]])) {
+                lines[count++] = stationLines[j];
+            }
+        }
+        return Arrays.copyOf(lines, count);
+    }
+
+    /**
+     * A* over (station, line) states ordered by changes, then distance. Only corridor lines are used:
+     * lines whose changes from the start plus changes to the end are within {@code maxChanges}. The
+     * changes still needed from a line to the end are the heuristic. States that cannot reach the end
+     * within {@code maxChanges} are pruned.
+     */
+    private RouteFinder.Route stationSearch(Graph.Station start, Graph.Station end, short[] fromStart,
+                                            short[] toEnd, int maxChanges, CompiledQuery constraints,
+                                            SearchContext context) {
+        SearchState labels = searchStates.poll();
+        if (labels == null) {
+            labels = new SearchState(stationLines.length);
+        }
+        try {
+            labels.next();
+            return stationSearch(labels, start, end, fromStart, toEnd, maxChanges, constraints, context);
+        } finally {
+            searchStates.offer(labels);
+        }
+    }
+
+    private RouteFinder.Route stationSearch(SearchState labels, Graph.Station start, Graph.Station end,
+                                            short[] fromStart, short[] toEnd, int maxChanges,
+                                            CompiledQuery constraints, SearchContext context) {
+        boolean[] corridor = new boolean[lineNumbers.length];
+        for (int line = 0; line < corridor.length; line++) {
+            corridor[line] = fromStart[line] != UNREACHABLE && toEnd[line] != UNREACHABLE
+                    && fromStart[line] + toEnd[line] <= maxChanges;
+        }
+
+        PriorityQueue<StateCost> queue = new PriorityQueue<>();
+        for (int j = stationLineStart[start.getId()]; j < stationLineStart[start.getId() + 1]; j++) {
+            if (corridor[stationLines[j]]) {
+                labels.set(j, 0, 0, -1, null);
+                queue.offer(new StateCost(j, start, 0, toEnd[stationLines[j]], 0));
+                context.heapPushed();
+            }
+        }
+
+        int found = -1;
+        while (!queue.isEmpty() && !context.shouldStop()) {
+            StateCost current = queue.poll();
+            int state = current.state;
+            if (current.changes > labels.changes[state]
+                    || (current.changes == labels.changes[state] && current.distance > labels.distance[state])) {
+                continue;
+            }
+            context.nodeSettled();
+            if (current.station.equals(end)) {
+                found = state;
+                break;
+            }
+
+            int line = stationLines[state];
+            for (Graph.Edge edge : current.station.getConnections().values()) {
+                int edgeLine = connectionLines[edge.getId()];
+                if (!corridor[edgeLine] || !constraints.allows(edge)) {
+                    continue;
+                }
+                context.edgeRelaxed();
+
+                int next = stateOf(edge.getDestination().getId(), edgeLine);
+                int nextChanges = current.changes + (edgeLine == line ? 0 : 1);
+                if (nextChanges + toEnd[edgeLine] > maxChanges) {
+                    continue;
+                }
+                double nextDistance = current.distance + edge.getDistance();
+                if (!labels.reached(next) || nextChanges < labels.changes[next]
+                        || (nextChanges == labels.changes[next] && nextDistance < labels.distance[next])) {
+                    labels.set(next, nextChanges, nextDistance, state, edge);
+                    queue.offer(new StateCost(next, edge.getDestination(), nextChanges,
+                            nextChanges + toEnd[edgeLine], nextDistance));
+                    context.heapPushed();
+                }
+            }
+        }
+        if (found < 0) {
+            return null;
+        }
+
+        Deque<Graph.Edge> edges = new ArrayDeque<>();
+        for (int state = found; labels.previousEdge[state] != null; state = labels.previous[state]) {
+            edges.push(labels.previousEdge[state]);
+        }
+        RouteFinder.Route route = new RouteFinder.Route();
+        route.addStation(start, null);
+        for (Graph.Edge edge : edges) {
+            route.addStation(edge.getDestination(), edge);
+        }
+        return route;
+    }
+
+    private int stateOf(int station, int line) {
+        for (int j = stationLineStart[station]; j < stationLineStart[station + 1]; j++) {
+            if (stationLines[j] == line) {
+                return j;
+            }
+        }
+        throw new IllegalStateException("Line " + lineNumbers[line] + " does not serve station " + station);
+    }
+
+    private static class StateCost implements Comparable<StateCost> {
+        int state;
+        Graph.Station station;
+        int changes;
+        // Changes so far plus the fewest still needed from this line.
+        int estimate;
+        double distance;
+
+        StateCost(int state, Graph.Station station, int changes, int estimate, double distance) {
+            this.state = state;
+            this.station = station;
+            this.changes = changes;
+            this.estimate = estimate;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(StateCost other) {
+            return estimate != other.estimate
+                    ? Integer.compare(estimate, other.estimate)
+                    : Double.compare(distance, other.distance);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.OffHeapGraph;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Append-only binary log of the queries a service answered, for replaying real traffic later.
+ *
+ * <p>Queries are captured in front of the result cache, so the log keeps the real traffic mix, repeats of
+ * popular trips included; cache hits are marked. Each record holds the time since the log was opened, the
+ * engine, the network the query ran on (when the process serves several), the full {@link RouteQuery},
+ * the observed latency, the number of routes, whether the search stopped early, whether the result came
+ * from the cache, and a hash of the result. The result hash is computed over station names, and routes
+ * are compared as an unordered set. This makes logs from different builds, or from the on-heap and
+ * off-heap engines, comparable.</p>
+ *
+ * <pre>
+ *   file    "UBQL" int format, then records until EOF
+ *   record  long offsetNanos, byte engine, UTF network ("" if not recorded), UTF start, UTF end,
+ *           strings waypoints, strings avoidStations, ints avoidLines, ints onlyLines,
+ *           int n + n * (UTF from, UTF to) avoidConnections, double penalty,
+ *           long latencyNanos, int routes, boolean stopped, boolean cached, long resultHash
+ * </pre>
+ *
+ * <p>Format 1 records have no network field and format 2 records no cached flag; they are read with no
+ * network and as cache misses. Lists are written as an int count followed by the elements. {@link #append}
+ * is thread-safe. An I/O error disables the log instead of failing the query that triggered it. Records
+ * are buffered, so a process that is killed leaves a torn last record; reading stops before it.</p>
+ */
+public class QueryLog implements Closeable {
+
+    private static final int MAGIC = 0x5542514C; // "UBQL"
+    private static final int FORMAT = 3;
+
+    public static final class Entry {
+        private final long offsetNanos;
+        private final RouteMetrics.Engine engine;
+        private final String network;
+        private final RouteQuery query;
+        private final long latencyNanos;
+        private final int routes;
+        private final boolean stopped;
+        private final boolean cached;
+        private final long resultHash;
+
+        /**
+         * @param network id of the network the query ran on, or null if not known
+         * @param cached  whether the result was served from a cache rather than searched
+         */
+        public Entry(long offsetNanos, RouteMetrics.Engine engine, String network, RouteQuery query,
+                     long latencyNanos, int routes, boolean stopped, boolean cached, long resultHash) {
+            this.offsetNanos = offsetNanos;
+            this.engine = engine;
+            this.network = network;
+            this.query = query;
+            this.latencyNanos = latencyNanos;
+            this.routes = routes;
+            this.stopped = stopped;
+            this.cached = cached;
+            this.resultHash = resultHash;
+        }
+
+        /**
+         * When the query started, relative to the opening of the log.
+         */
+        public long getOffsetNanos() {
+            return offsetNanos;
+        }
+
+        public RouteMetrics.Engine getEngine() {
+            return engine;
+        }
+
+        /**
+         * Id of the network the query ran on, or null if the log did not record one.
+         */
+        public String getNetwork() {
+            return network;
+        }
+
+        public RouteQuery getQuery() {
+            return query;
+        }
+
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        public int getRoutes() {
+            return routes;
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * True if the result was served from a cache; its latency then says nothing about the engine.
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        public long getResultHash() {
+            return resultHash;
+        }
+    }
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean failed;
+
+    private QueryLog(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Creates (or truncates) a log file.
+     */
+    public static QueryLog create(Path file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        return new QueryLog(out);
+    }
+
+    /**
+     * Nanos since the log was opened, for stamping a query as it starts.
+     */
+    public long offsetOf(long nanoTime) {
+        return nanoTime - startNanos;
+    }
+
+    public void append(Entry entry) {
+        if (failed) {
+            return;
+        }
+        synchronized (out) {
+            try {
+                write(out, entry);
+            } catch (IOException e) {
+                failed = true;
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Appends a query answered with {@code routes}, which started at {@code startNanos} and ends now.
+     */
+    public void record(long startNanos, RouteMetrics.Engine engine, String network, RouteQuery query,
+                       List<RouteFinder.Route> routes, boolean stopped, boolean cached) {
+        long nanos = System.nanoTime() - startNanos;
+        append(new Entry(offsetOf(startNanos), engine, network, query, nanos, routes.size(), stopped, cached,
+                hashRoutes(routes)));
+    }
+
+    public void flush() throws IOException {
+        synchronized (out) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            out.close();
+        }
+    }
+
+    /**
+     * Streams the records of a log in the order they were written, up to the last complete one.
+     */
+    public static void read(Path file, Consumer<Entry> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a query log");
+            }
+            int format = in.readInt();
+            if (format < 1 || format > FORMAT) {
+                throw new IOException("Unsupported query log format " + format);
+            }
+            while (true) {
+                Entry entry;
+                try {
+                    entry = readEntry(in, format);
+                } catch (EOFException e) {
+                    // End of the log, or a record torn when the writer was killed.
+                    return;
+                }
+                consumer.accept(entry);
+            }
+        }
+    }
+
+    public static List<Entry> readAll(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        read(file, entries::add);
+        return entries;
+    }
+
+    public static long hashRoute(RouteFinder.Route route) {
+        if (route == null) {
+            return 0;
+        }
+        long hash = 0xCBF29CE484222325L;
+        for (Graph.Station station : route.getStations()) {
+            hash = fnv(hash, station.getName());
+        }
+        return hash;
+    }
+
+    /**
+     * Order-insensitive hash of a set of routes; 0 for none.
+     */
+    public static long hashRoutes(List<RouteFinder.Route> routes) {
+        long[] hashes = new long[routes.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hashRoute(routes.get(i));
+        }
+        Arrays.sort(hashes);
+        long hash = 0;
+        for (long h : hashes) {
+            hash = hash * 31 + h;
+        }
+        return hash;
+    }
+
+    /**
+     * Hash of an off-heap path, equal to {@link #hashRoute} of the same stations on a {@link Graph}.
+     */
+    public static long hashPath(OffHeapGraph graph, int[] path) {
+        if (path == null) {
+            return 0;
+        }
+        long hash = 0xCBF29CE484222325L;
+        for (int station : path) {
+            hash = fnv(hash, graph.stationName(station));
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            hash = (hash ^ name.charAt(i)) * 0x100000001B3L;
+        }
+        return (hash ^ 0xFF) * 0x100000001B3L;
+    }
+
+    private static void write(DataOutputStream out, Entry entry) throws IOException {
+        RouteQuery query = entry.query;
+        out.writeLong(entry.offsetNanos);
+        out.writeByte(entry.engine.ordinal());
+        out.writeUTF(entry.network == null ? "" : entry.network);
+        out.writeUTF(query.getStart());
+        out.writeUTF(query.getEnd());
+        writeStrings(out, query.getWaypoints());
+        writeStrings(out, query.getAvoidStations());
+        writeInts(out, query.getAvoidLines());
+        writeInts(out, query.getOnlyLines());
+        out.writeInt(query.getAvoidConnections().size());
+        for (List<String> pair : query.getAvoidConnections()) {
+            out.writeUTF(pair.get(0));
+            out.writeUTF(pair.get(1));
+        }
+        out.writeDouble(query.getLineChangePenalty());
+        out.writeLong(entry.latencyNanos);
+        out.writeInt(entry.routes);
+        out.writeBoolean(entry.stopped);
+        out.writeBoolean(entry.cached);
+        out.writeLong(entry.resultHash);
+    }
+
+    private static Entry readEntry(DataInputStream in, int format) throws IOException {
+        long offsetNanos = in.readLong();
+        RouteMetrics.Engine engine = RouteMetrics.Engine.values()[in.readByte()];
+        String network = format == 1 ? "" : in.readUTF();
+        RouteQuery.Builder builder = RouteQuery.builder(in.readUTF(), in.readUTF())
+                .waypoints(readStrings(in))
+                .avoidStations(readStrings(in))
+                .avoidLines(readInts(in))
+                .onlyLines(readInts(in));
+        int connections = in.readInt();
+        for (int i = 0; i < connections; i++) {
+            builder.avoidConnection(in.readUTF(), in.readUTF());
+        }
+        RouteQuery query = builder.lineChangePenalty(in.readDouble()).build();
+        long latencyNanos = in.readLong();
+        int routes = in.readInt();
+        boolean stopped = in.readBoolean();
+        boolean cached = format >= 3 && in.readBoolean();
+        return new Entry(offsetNanos, engine, network.isEmpty() ? null : network, query,
+                latencyNanos, routes, stopped, cached, in.readLong());
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, Collection<Integer> values) throws IOException {
+        out.writeInt(values.size());
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    private static List<Integer> readInts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Integer> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readInt());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.GraphStore;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, thread-safe cache of complete route query results.
+ *
+ * <p>Entries are keyed by algorithm, canonical {@link RouteQuery} and graph version, so results computed
+ * on an older {@link GraphStore} snapshot are never served for a newer one. A cache that
+ * {@linkplain #follow follows} its store drops them once that snapshot is retired. Each entry weighs the number of stations across its routes; once the total weight exceeds
+ * the budget the least recently used entries are evicted. Concurrent misses on the same key are
+ * coalesced: one caller computes, the others wait for its result. If that caller cancels its search, the
+ * others do not fail with it but compute the result again.</p>
+ *
+ * <p>Cached routes are shared between callers and must not be modified.</p>
+ */
+public class RouteCache {
+
+    public static final class Key {
+        private final RouteFinder.Algorithm algorithm;
+        private final RouteQuery query;
+        private final long graphVersion;
+
+        public Key(RouteFinder.Algorithm algorithm, RouteQuery query, long graphVersion) {
+            this.algorithm = algorithm;
+            this.query = query;
+            this.graphVersion = graphVersion;
+        }
+
+        public RouteFinder.Algorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public RouteQuery getQuery() {
+            return query;
+        }
+
+        public long getGraphVersion() {
+            return graphVersion;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            Key other = (Key) obj;
+            return algorithm == other.algorithm && graphVersion == other.graphVersion && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(algorithm, query, graphVersion);
+        }
+    }
+
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long coalesced;
+        private final long evictions;
+        private final int size;
+        private final long weight;
+
+        private Stats(long hits, long misses, long coalesced, long evictions, int size, long weight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.coalesced = coalesced;
+            this.evictions = evictions;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Misses that waited for an identical in-flight computation instead of searching themselves.
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        public double getHitRate() {
+            long requests = hits + misses + coalesced;
+            return requests == 0 ? 0 : (double) (hits + coalesced) / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d coalesced=%d evictions=%d size=%d weight=%d hitRate=%.2f",
+                    hits, misses, coalesced, evictions, size, weight, getHitRate());
+        }
+    }
+
+    private static final class Entry {
+        final List<RouteFinder.Route> routes;
+        final long weight;
+
+        Entry(List<RouteFinder.Route> routes, long weight) {
+            this.routes = routes;
+            this.weight = weight;
+        }
+    }
+
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<Key, CompletableFuture<List<RouteFinder.Route>>> inFlight = new ConcurrentHashMap<>();
+    private long totalWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight total number of route stations the cache may hold
+     */
+    public RouteCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Looks up the result of {@code algorithm} for {@code query} on {@code graph}, running
+     * {@code routeFinder} on a miss. {@code graph} should be a published snapshot so its version is meaningful.
+     */
+    public List<RouteFinder.Route> find(RouteFinder routeFinder, Graph graph,
+                                        RouteFinder.Algorithm algorithm, RouteQuery query) {
+        return get(new Key(algorithm, query, graph.getVersion()),
+                () -> routeFinder.findRoutes(graph, algorithm, query));
+    }
+
+    /**
+     * Returns the cached result for {@code key}, or computes it with {@code compute}, sharing the computation
+     * with concurrent callers for the same key. A computation that throws {@link CancellationException} was
+     * stopped by its own caller; it fails only that caller, and the others waiting for it compute again.
+     */
+    public List<RouteFinder.Route> get(Key key, Supplier<List<RouteFinder.Route>> compute) {
+        while (true) {
+            List<RouteFinder.Route> cached = getIfPresent(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            CompletableFuture<List<RouteFinder.Route>> mine = new CompletableFuture<>();
+            CompletableFuture<List<RouteFinder.Route>> existing = inFlight.putIfAbsent(key, mine);
+            if (existing != null) {
+                coalesced.increment();
+                List<RouteFinder.Route> shared;
+                try {
+                    shared = existing.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException cause) {
+                        throw cause;
+                    }
+                    throw e;
+                }
+                if (shared != null) {
+                    return shared;
+                }
+                continue; // The computing caller was cancelled.
+            }
+
+            misses.increment();
+            try {
+                List<RouteFinder.Route> routes = Collections.unmodifiableList(compute.get());
+                put(key, routes);
+                mine.complete(routes);
+                return routes;
+            } catch (CancellationException e) {
+                // Null tells the waiters to retry rather than fail with this caller's cancellation.
+                inFlight.remove(key, mine);
+                mine.complete(null);
+                throw e;
+            } catch (RuntimeException | Error e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached result for {@code key}, counting a hit, or null without counting anything.
+     */
+    public List<RouteFinder.Route> getIfPresent(Key key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            hits.increment();
+            return entry.routes;
+        }
+    }
+
+    public void put(Key key, List<RouteFinder.Route> routes) {
+        long weight = 1;
+        for (RouteFinder.Route route : routes) {
+            weight += route.getStations().size();
+        }
+        if (weight > maxWeight) {
+            return;
+        }
+
+        synchronized (entries) {
+            Entry previous = entries.put(key, new Entry(routes, weight));
+            totalWeight += weight - (previous == null ? 0 : previous.weight);
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (totalWeight > maxWeight && eldest.hasNext()) {
+                totalWeight -= eldest.next().weight;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drops the entries of each version {@code store} replaces once its last query has finished, so results
+     * no query can be served any more stop taking up the budget.
+     */
+    public void follow(GraphStore store) {
+        store.addRetireListener(retired -> invalidateBefore(retired.getVersion() + 1));
+    }
+
+    /**
+     * Drops every entry computed on a graph version older than {@code version}.
+     */
+    public void invalidateBefore(long version) {
+        synchronized (entries) {
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Entry> entry = it.next();
+                if (entry.getKey().graphVersion < version) {
+                    totalWeight -= entry.getValue().weight;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            totalWeight = 0;
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (entries) {
+            return new Stats(hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), entries.size(), totalWeight);
+        }
+    }
+}
@@ -1,15 +1,49 @@
 package com.example.viennaubahnroutefinder.algorithm;
 
 import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.GraphDelta;
+import com.example.viennaubahnroutefinder.model.OffHeapGraph;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 public class RouteFinder {
 
+    // Source trees kept for unconstrained shortest-distance queries, 12 bytes per station each.
+    private static final int SHORTEST_PATH_TREES = 64;
+
+    private final RouteMetrics metrics;
+    private final DynamicShortestPaths shortestPathTrees = new DynamicShortestPaths(null, SHORTEST_PATH_TREES);
+    private volatile LineGraphIndex lineGraphIndex;
+
+    public RouteFinder() {
+        this(RouteMetrics.global());
+    }
+
+    /**
+     * @param metrics where query latencies and work counters are recorded
+     */
+    public RouteFinder(RouteMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * The search engines offered by {@link #findRoutes}; the line-change penalty is part of the {@link RouteQuery}.
+     */
+    public enum Algorithm {
+        BFS,
+        SHORTEST_DISTANCE,
+        ALL_ROUTES_DFS,
+        FEWEST_CHANGES
+    }
+
     public static class Route {
         private List<Graph.Station> stations;
         private List<Graph.Edge> edges;
         private double totalDistance;
+        private boolean partial;
 
         public Route() {
             this.stations = new ArrayList<>();
@@ -21,6 +55,7 @@ public class RouteFinder {
             this.stations = new ArrayList<>(other.stations);
             this.edges = new ArrayList<>(other.edges);
             this.totalDistance = other.totalDistance;
+            this.partial = other.partial;
         }
 
         public void addStation(Graph.Station station, Graph.Edge edge) {
@@ -52,73 +87,146 @@ public class RouteFinder {
             }
             return changes;
         }
-    }
 
-    public List<Route> findAllRoutesDFS(Graph graph, String start, String end,
-                                        Set<String> avoidStations, List<String> waypoints) {
-        List<Route> allRoutes = new ArrayList<>();
-        Graph.Station startStation = graph.getStation(start);
-        Graph.Station endStation = graph.getStation(end);
+        /**
+         * True if the route stops short of the destination: the search was stopped before it got past a
+         * waypoint, and returned the routes up to the last waypoint it reached.
+         */
+        public boolean isPartial() {
+            return partial;
+        }
 
-        if (startStation == null || endStation == null) {
-            return allRoutes;
+        void markPartial() {
+            this.partial = true;
         }
+    }
 
-        if (waypoints == null || waypoints.isEmpty()) {
-            findRoutesDFS(startStation, endStation, new HashSet<>(), new Route(),
-                    allRoutes, avoidStations, 15);
-        } else {
-            findRoutesWithWaypointsDFS(graph, start, end, waypoints, avoidStations, allRoutes);
+    /**
+     * Runs {@code algorithm} for {@code query}; single-route engines yield a list with zero or one route.
+     */
+    public List<Route> findRoutes(Graph graph, Algorithm algorithm, RouteQuery query) {
+        return findRoutes(graph, algorithm, query, new SearchContext(), route -> { });
+    }
+
+    /**
+     * Runs {@code algorithm} under {@code context}, handing every route to {@code onRoute} as soon as it is
+     * known. If the context stops the search, the best routes found so far are returned.
+     */
+    public List<Route> findRoutes(Graph graph, Algorithm algorithm, RouteQuery query,
+                                  SearchContext context, Consumer<Route> onRoute) {
+        List<Route> routes;
+        switch (algorithm) {
+            case BFS: routes = asList(findShortestRouteBFS(graph, query, context)); break;
+            case SHORTEST_DISTANCE: routes = asList(findShortestDistanceRoute(graph, query, context)); break;
+            case ALL_ROUTES_DFS: return findAllRoutesDFS(graph, query, onRoute, context);
+            case FEWEST_CHANGES: routes = asList(findFewestChangesRoute(graph, query, context)); break;
+            default: throw new IllegalArgumentException("Unknown algorithm " + algorithm);
         }
+        routes.forEach(onRoute);
+        return routes;
+    }
 
-        return allRoutes;
+    public RouteMetrics getMetrics() {
+        return metrics;
     }
 
-    private void findRoutesDFS(Graph.Station current, Graph.Station end,
-                               Set<Graph.Station> visited, Route currentRoute,
-                               List<Route> allRoutes, Set<String> avoidStations, int maxDepth) {
-        if (maxDepth <= 0 || (avoidStations != null && avoidStations.contains(current.getName()))) {
-            return;
+    /**
+     * Runs {@code search}, recording its latency and the work counted in {@code context} into the metrics
+     * and a {@link RouteQueryEvent}. With both disabled this costs two flag checks.
+     */
+    private <T> T measure(RouteMetrics.Engine engine, RouteQuery query, SearchContext context,
+                          Supplier<T> search, ToIntFunction<T> routeCount) {
+        RouteQueryEvent event = new RouteQueryEvent();
+        boolean recording = metrics.isEnabled();
+        if (!recording && !event.isEnabled()) {
+            return search.get();
         }
 
-        visited.add(current);
-        currentRoute.addStation(current, null);
+        event.begin();
+        long startNanos = System.nanoTime();
+        T result = search.get();
+        long nanos = System.nanoTime() - startNanos;
+        event.end();
 
-        if (current.equals(end)) {
-            allRoutes.add(new Route(currentRoute));
-        } else {
-            for (Map.Entry<Graph.Station, Graph.Edge> entry : current.getConnections().entrySet()) {
-                Graph.Station neighbor = entry.getKey();
-                if (!visited.contains(neighbor)) {
-                    Route newRoute = new Route(currentRoute);
-                    newRoute.getStations().remove(newRoute.getStations().size() - 1);
-                    newRoute.addStation(current, entry.getValue());
-                    findRoutesDFS(neighbor, end, visited, newRoute, allRoutes, avoidStations, maxDepth - 1);
-                }
-            }
+        RouteMetrics.QueryType queryType = RouteMetrics.QueryType.of(query);
+        int routes = routeCount.applyAsInt(result);
+        if (recording) {
+            metrics.record(engine, queryType, nanos, context, routes);
+        }
+        if (event.shouldCommit()) {
+            event.engine = engine.name();
+            event.queryType = queryType.name();
+            event.startStation = query.getStart();
+            event.endStation = query.getEnd();
+            event.stops = query.getWaypoints().size() + 2;
+            event.settledNodes = context.getSettledNodes();
+            event.relaxedEdges = context.getRelaxedEdges();
+            event.heapPushes = context.getHeapPushes();
+            event.routes = routes;
+            event.stopped = context.isStopped();
+            event.commit();
+        }
+        return result;
+    }
+
+    private static List<Route> asList(Route route) {
+        List<Route> routes = new ArrayList<>();
+        if (route != null) {
+            routes.add(route);
         }
+        return routes;
+    }
 
-        visited.remove(current);
+    public List<Route> findAllRoutesDFS(Graph graph, String start, String end,
+                                        Set<String> avoidStations, List<String> waypoints) {
+        return findAllRoutesDFS(graph, RouteQuery.of(start, end, avoidStations, waypoints, 0));
     }
 
-    private void findRoutesWithWaypointsDFS(Graph graph, String start, String end,
-                                            List<String> waypoints, Set<String> avoidStations,
-                                            List<Route> allRoutes) {
-        List<String> fullPath = new ArrayList<>();
-        fullPath.add(start);
-        fullPath.addAll(waypoints);
-        fullPath.add(end);
+    public List<Route> findAllRoutesDFS(Graph graph, RouteQuery query) {
+        return findAllRoutesDFS(graph, query, route -> { }, new SearchContext());
+    }
+
+    /**
+     * Enumerates routes like {@link #findAllRoutesDFS(Graph, RouteQuery)} and hands each one to
+     * {@code onRoute} as soon as it is known: immediately without waypoints, after combining the
+     * segments otherwise. The search stops early, returning what it has, once {@code context} says so;
+     * with waypoints, if it stops before a segment yields a route, the routes combined up to that
+     * segment's start are returned, marked {@linkplain Route#isPartial() partial}.
+     */
+    public List<Route> findAllRoutesDFS(Graph graph, RouteQuery query, Consumer<Route> onRoute,
+                                        SearchContext context) {
+        return measure(RouteMetrics.Engine.DFS, query, context,
+                () -> enumerateRoutesDFS(graph, query, onRoute, context), List::size);
+    }
+
+    private List<Route> enumerateRoutesDFS(Graph graph, RouteQuery query, Consumer<Route> onRoute,
+                                           SearchContext context) {
+        CompiledQuery constraints = query.compile(graph);
+        List<String> stops = query.getStops();
+        boolean singleSegment = stops.size() == 2;
 
         List<Route> currentSegmentRoutes = null;
 
-        for (int i = 0; i < fullPath.size() - 1; i++) {
-            String from = fullPath.get(i);
-            String to = fullPath.get(i + 1);
+        for (int i = 0; i < stops.size() - 1; i++) {
+            Graph.Station from = graph.getStation(stops.get(i));
+            Graph.Station to = graph.getStation(stops.get(i + 1));
 
-            List<Route> segmentRoutes = findAllRoutesDFS(graph, from, to, avoidStations, null);
+            if (from == null || to == null) {
+                return new ArrayList<>();
+            }
+
+            List<Route> segmentRoutes = new ArrayList<>();
+            Consumer<Route> sink = singleSegment
+                    ? route -> { segmentRoutes.add(route); onRoute.accept(route); }
+                    : segmentRoutes::add;
+            findRoutesDFS(from, to, new HashSet<>(), new Route(), sink, constraints, context, 15);
 
             if (segmentRoutes.isEmpty()) {
-                return;
+                if (currentSegmentRoutes != null && context.isStopped()) {
+                    currentSegmentRoutes.forEach(Route::markPartial);
+                    break;
+                }
+                return segmentRoutes;
             }
 
             if (currentSegmentRoutes == null) {
@@ -128,7 +236,41 @@ public class RouteFinder {
             }
         }
 
-        allRoutes.addAll(currentSegmentRoutes);
+        if (!singleSegment) {
+            currentSegmentRoutes.forEach(onRoute);
+        }
+        return currentSegmentRoutes;
+    }
+
+    private void findRoutesDFS(Graph.Station current, Graph.Station end,
+                               Set<Graph.Station> visited, Route currentRoute,
+                               Consumer<Route> sink, CompiledQuery constraints,
+                               SearchContext context, int maxDepth) {
+        if (maxDepth <= 0 || !constraints.allowsStation(current.getId()) || context.shouldStop()) {
+            return;
+        }
+
+        visited.add(current);
+        currentRoute.addStation(current, null);
+        context.nodeSettled();
+
+        if (current.equals(end)) {
+            context.routeFound();
+            sink.accept(new Route(currentRoute));
+        } else {
+            for (Map.Entry<Graph.Station, Graph.Edge> entry : current.getConnections().entrySet()) {
+                Graph.Station neighbor = entry.getKey();
+                if (!visited.contains(neighbor) && constraints.allows(entry.getValue())) {
+                    context.edgeRelaxed();
+                    Route newRoute = new Route(currentRoute);
+                    newRoute.getStations().remove(newRoute.getStations().size() - 1);
+                    newRoute.addStation(current, entry.getValue());
+                    findRoutesDFS(neighbor, end, visited, newRoute, sink, constraints, context, maxDepth - 1);
+                }
+            }
+        }
+
+        visited.remove(current);
     }
 
     private List<Route> combineRoutes(List<Route> routes1, List<Route> routes2) {
@@ -162,13 +304,33 @@ public class RouteFinder {
 
     public Route findShortestRouteBFS(Graph graph, String start, String end,
                                       Set<String> avoidStations, List<String> waypoints) {
-        if (waypoints != null && !waypoints.isEmpty()) {
-            return findRouteWithWaypoints(graph, start, end, waypoints, avoidStations, true);
-        }
+        return findShortestRouteBFS(graph, RouteQuery.of(start, end, avoidStations, waypoints, 0));
+    }
 
-        Graph.Station startStation = graph.getStation(start);
-        Graph.Station endStation = graph.getStation(end);
+    public Route findShortestRouteBFS(Graph graph, RouteQuery query) {
+        return findShortestRouteBFS(graph, query, new SearchContext());
+    }
+
+    /**
+     * BFS under {@code context}. If the search is stopped early, returns the first route that reached the
+     * end station, if any; it has the fewest stops among routes discovered so far.
+     */
+    public Route findShortestRouteBFS(Graph graph, RouteQuery query, SearchContext context) {
+        return measure(RouteMetrics.Engine.BFS, query, context,
+                () -> shortestRouteBFS(graph, query, context), route -> route == null ? 0 : 1);
+    }
+
+    private Route shortestRouteBFS(Graph graph, RouteQuery query, SearchContext context) {
+        CompiledQuery constraints = query.compile(graph);
+        if (!query.getWaypoints().isEmpty()) {
+            return findRouteWithWaypoints(graph, query.getStops(), constraints, context, true);
+        }
+        return findShortestRouteBFS(graph.getStation(query.getStart()), graph.getStation(query.getEnd()),
+                constraints, context);
+    }
 
+    private Route findShortestRouteBFS(Graph.Station startStation, Graph.Station endStation,
+                                       CompiledQuery constraints, SearchContext context) {
         if (startStation == null || endStation == null) {
             return null;
         }
@@ -179,25 +341,37 @@ public class RouteFinder {
         Route initialRoute = new Route();
         initialRoute.addStation(startStation, null);
         queue.offer(initialRoute);
+        context.heapPushed();
         visited.add(startStation);
 
+        Route reachedEnd = null;
+
         while (!queue.isEmpty()) {
             Route currentRoute = queue.poll();
             Graph.Station currentStation = currentRoute.getStations().get(currentRoute.getStations().size() - 1);
+            context.nodeSettled();
 
             if (currentStation.equals(endStation)) {
                 return currentRoute;
             }
 
+            if (context.shouldStop()) {
+                return reachedEnd;
+            }
+
             for (Map.Entry<Graph.Station, Graph.Edge> entry : currentStation.getConnections().entrySet()) {
                 Graph.Station neighbor = entry.getKey();
 
-                if (!visited.contains(neighbor) &&
-                        (avoidStations == null || !avoidStations.contains(neighbor.getName()))) {
+                if (!visited.contains(neighbor) && constraints.allows(entry.getValue())) {
+                    context.edgeRelaxed();
                     visited.add(neighbor);
                     Route newRoute = new Route(currentRoute);
                     newRoute.addStation(neighbor, entry.getValue());
                     queue.offer(newRoute);
+                    context.heapPushed();
+                    if (neighbor.equals(endStation)) {
+                        reachedEnd = newRoute;
+                    }
                 }
             }
         }
@@ -208,17 +382,46 @@ public class RouteFinder {
     public Route findShortestDistanceRoute(Graph graph, String start, String end,
                                            Set<String> avoidStations, List<String> waypoints,
                                            double lineChangePenalty) {
-        if (waypoints != null && !waypoints.isEmpty()) {
-            return findRouteWithWaypoints(graph, start, end, waypoints, avoidStations, false);
-        }
+        return findShortestDistanceRoute(graph, RouteQuery.of(start, end, avoidStations, waypoints, lineChangePenalty));
+    }
 
-        Graph.Station startStation = graph.getStation(start);
-        Graph.Station endStation = graph.getStation(end);
+    public Route findShortestDistanceRoute(Graph graph, RouteQuery query) {
+        return findShortestDistanceRoute(graph, query, new SearchContext());
+    }
+
+    /**
+     * Dijkstra under {@code context}. If the search is stopped early, returns the best tentative route to
+     * the end station found so far, if any.
+     */
+    public Route findShortestDistanceRoute(Graph graph, RouteQuery query, SearchContext context) {
+        return measure(RouteMetrics.Engine.DIJKSTRA, query, context,
+                () -> shortestDistanceRoute(graph, query, context), route -> route == null ? 0 : 1);
+    }
+
+    private Route shortestDistanceRoute(Graph graph, RouteQuery query, SearchContext context) {
+        CompiledQuery constraints = query.compile(graph);
+        if (!query.getWaypoints().isEmpty()) {
+            return findRouteWithWaypoints(graph, query.getStops(), constraints, context, false);
+        }
+        return findShortestDistanceRoute(graph, graph.getStation(query.getStart()), graph.getStation(query.getEnd()),
+                constraints, context, query.getLineChangePenalty());
+    }
 
+    private Route findShortestDistanceRoute(Graph graph, Graph.Station startStation, Graph.Station endStation,
+                                            CompiledQuery constraints, SearchContext context,
+                                            double lineChangePenalty) {
         if (startStation == null || endStation == null) {
             return null;
         }
 
+        if (lineChangePenalty <= 0 && constraints.isUnrestricted() && followsShortestPathTrees(graph)) {
+            Route route = shortestPathTrees.findRoute(graph, startStation.getName(), endStation.getName());
+            if (route != null || shortestPathTrees.isOn(graph)) {
+                return route;
+            }
+            // The trees moved on to a newer version meanwhile; search this one directly.
+        }
+
         Map<Graph.Station, Double> distances = new HashMap<>();
         Map<Graph.Station, Graph.Station> previous = new HashMap<>();
         Map<Graph.Station, Graph.Edge> previousEdge = new HashMap<>();
@@ -230,26 +433,29 @@ public class RouteFinder {
 
         distances.put(startStation, 0.0);
         pq.offer(new NodeDistance(startStation, 0.0, -1));
+        context.heapPushed();
 
         while (!pq.isEmpty()) {
             NodeDistance current = pq.poll();
             Graph.Station currentStation = current.station;
 
-            if (currentStation.equals(endStation)) {
+            if (currentStation.equals(endStation) || context.shouldStop()) {
                 break;
             }
 
             if (current.distance > distances.get(currentStation)) {
                 continue;
             }
+            context.nodeSettled();
 
             for (Map.Entry<Graph.Station, Graph.Edge> entry : currentStation.getConnections().entrySet()) {
                 Graph.Station neighbor = entry.getKey();
                 Graph.Edge edge = entry.getValue();
 
-                if (avoidStations != null && avoidStations.contains(neighbor.getName())) {
+                if (!constraints.allows(edge)) {
                     continue;
                 }
+                context.edgeRelaxed();
 
                 double edgeWeight = edge.getDistance();
 
@@ -265,6 +471,7 @@ public class RouteFinder {
                     previous.put(neighbor, currentStation);
                     previousEdge.put(neighbor, edge);
                     pq.offer(new NodeDistance(neighbor, newDistance, edge.getLine()));
+                    context.heapPushed();
                 }
             }
         }
@@ -290,25 +497,213 @@ public class RouteFinder {
         return null;
     }
 
-    private Route findRouteWithWaypoints(Graph graph, String start, String end,
-                                         List<String> waypoints, Set<String> avoidStations,
-                                         boolean useBFS) {
-        List<String> fullPath = new ArrayList<>();
-        fullPath.add(start);
-        fullPath.addAll(waypoints);
-        fullPath.add(end);
+    public Route findFewestChangesRoute(Graph graph, RouteQuery query) {
+        return findFewestChangesRoute(graph, query, new SearchContext());
+    }
+
+    /**
+     * Route with the fewest line changes, ties broken by distance, searched through the graph's
+     * {@link LineGraphIndex}. With waypoints the legs are searched together, so the result has the fewest
+     * changes over the whole route, not per leg. The index of a frozen graph is built on first use, or by
+     * {@link #prepare}, and kept until a query for a newer graph version.
+     */
+    public Route findFewestChangesRoute(Graph graph, RouteQuery query, SearchContext context) {
+        return measure(RouteMetrics.Engine.LINE_GRAPH, query, context,
+                () -> fewestChangesRoute(graph, query, context), route -> route == null ? 0 : 1);
+    }
+
+    private Route fewestChangesRoute(Graph graph, RouteQuery query, SearchContext context) {
+        LineGraphIndex index = lineGraphIndex(graph);
+        CompiledQuery constraints = query.compile(graph);
+        List<Graph.Station> stops = new ArrayList<>();
+        for (String stop : query.getStops()) {
+            stops.add(graph.getStation(stop));
+        }
+        return index.findRoute(stops, constraints, context);
+    }
+
+    /**
+     * Builds the indexes kept per graph ahead of the first query, e.g. from
+     * {@link com.example.viennaubahnroutefinder.model.GraphStore#publish(Graph, Consumer)} while a reloaded
+     * network is not yet visible. Only frozen graphs are indexed.
+     */
+    public void prepare(Graph graph) {
+        if (graph.isFrozen()) {
+            lineGraphIndex(graph);
+        }
+    }
+
+    /**
+     * Moves the cached shortest-path trees from {@code previous} to {@code updated}, repairing only the trees
+     * the change affects. Register it with
+     * {@link com.example.viennaubahnroutefinder.model.GraphStore#addDeltaListener} so closures published
+     * through the store keep the trees warm.
+     */
+    public void applyDelta(Graph previous, Graph updated, GraphDelta delta) {
+        shortestPathTrees.apply(previous, updated, delta);
+    }
+
+    /**
+     * The shortest-path trees behind unconstrained shortest-distance queries, e.g. for their counters.
+     */
+    public DynamicShortestPaths getShortestPathTrees() {
+        return shortestPathTrees;
+    }
+
+    /**
+     * Whether plain shortest-distance queries on {@code graph} can use the trees. Graphs published without
+     * a delta (a reload, or an arbitrary update) reset the trees to that version; queries still running on
+     * older versions search directly.
+     */
+    private boolean followsShortestPathTrees(Graph graph) {
+        if (!graph.isFrozen()) {
+            return false;
+        }
+        synchronized (shortestPathTrees) {
+            Graph current = shortestPathTrees.getGraph();
+            if (current != graph && (current == null || graph.getVersion() > current.getVersion())) {
+                shortestPathTrees.reset(graph);
+            }
+            return shortestPathTrees.isOn(graph);
+        }
+    }
+
+    private LineGraphIndex lineGraphIndex(Graph graph) {
+        LineGraphIndex index = lineGraphIndex;
+        if (index != null && index.getGraph() == graph) {
+            return index;
+        }
+        LineGraphIndex built = new LineGraphIndex(graph);
+        // Queries still running on the previous version must not evict the index of the current one.
+        if (graph.isFrozen() && (index == null || graph.getVersion() >= index.getGraph().getVersion())) {
+            lineGraphIndex = built;
+        }
+        return built;
+    }
+
+    public int[] findShortestDistancePath(OffHeapGraph graph, String start, String end,
+                                          Set<String> avoidStations, double lineChangePenalty) {
+        return findShortestDistancePath(graph, RouteQuery.of(start, end, avoidStations, null, lineChangePenalty));
+    }
+
+    /**
+     * Dijkstra over an {@link OffHeapGraph}, using only primitive per-query arrays so the graph itself
+     * adds nothing to the heap. Returns the station ids from start to end, or null if unreachable.
+     */
+    public int[] findShortestDistancePath(OffHeapGraph graph, RouteQuery query) {
+        return findShortestDistancePath(graph, query, new SearchContext());
+    }
+
+    public int[] findShortestDistancePath(OffHeapGraph graph, RouteQuery query, SearchContext context) {
+        return measure(RouteMetrics.Engine.DIJKSTRA_OFF_HEAP, query, context,
+                () -> shortestDistancePath(graph, query, context), path -> path == null ? 0 : 1);
+    }
+
+    private int[] shortestDistancePath(OffHeapGraph graph, RouteQuery query, SearchContext context) {
+        CompiledQuery constraints = query.compile(graph);
+        List<String> stops = query.getStops();
+        double penalty = query.getWaypoints().isEmpty() ? query.getLineChangePenalty() : 0;
+
+        int[] combined = new int[0];
+        for (int i = 0; i < stops.size() - 1; i++) {
+            int[] segment = findShortestDistancePath(graph, graph.stationId(stops.get(i)),
+                    graph.stationId(stops.get(i + 1)), constraints, context, penalty);
+            if (segment == null) {
+                return null;
+            }
+            int skip = (i == 0) ? 0 : 1;
+            int offset = combined.length;
+            combined = Arrays.copyOf(combined, offset + segment.length - skip);
+            System.arraycopy(segment, skip, combined, offset, segment.length - skip);
+        }
+        return combined;
+    }
+
+    private int[] findShortestDistancePath(OffHeapGraph graph, int startId, int endId,
+                                           CompiledQuery constraints, SearchContext context,
+                                           double lineChangePenalty) {
+        if (startId < 0 || endId < 0) {
+            return null;
+        }
 
+        int stationCount = graph.getStationCount();
+        double[] distances = new double[stationCount];
+        int[] previous = new int[stationCount];
+        Arrays.fill(distances, Double.MAX_VALUE);
+        Arrays.fill(previous, -1);
+        PriorityQueue<IndexDistance> pq = new PriorityQueue<>();
+
+        distances[startId] = 0.0;
+        pq.offer(new IndexDistance(startId, 0.0, -1));
+        context.heapPushed();
+
+        while (!pq.isEmpty()) {
+            IndexDistance current = pq.poll();
+
+            if (current.station == endId || context.shouldStop()) {
+                break;
+            }
+
+            if (current.distance > distances[current.station]) {
+                continue;
+            }
+            context.nodeSettled();
+
+            for (int edge = graph.firstEdge(current.station), last = graph.endEdge(current.station); edge < last; edge++) {
+                int neighbor = graph.edgeTarget(edge);
+                int line = graph.edgeLine(edge);
+
+                if (!constraints.allows(neighbor, line, graph.edgeConnection(edge))) {
+                    continue;
+                }
+                context.edgeRelaxed();
+
+                double edgeWeight = graph.edgeWeight(edge);
+
+                if (lineChangePenalty > 0 && current.currentLine != -1 && current.currentLine != line) {
+                    edgeWeight += lineChangePenalty;
+                }
+
+                double newDistance = distances[current.station] + edgeWeight;
+
+                if (newDistance < distances[neighbor]) {
+                    distances[neighbor] = newDistance;
+                    previous[neighbor] = current.station;
+                    pq.offer(new IndexDistance(neighbor, newDistance, line));
+                    context.heapPushed();
+                }
+            }
+        }
+
+        if (startId != endId && previous[endId] == -1) {
+            return null;
+        }
+
+        int length = 1;
+        for (int station = endId; station != startId; station = previous[station]) {
+            length++;
+        }
+
+        int[] path = new int[length];
+        for (int station = endId, i = length - 1; i >= 0; station = previous[station], i--) {
+            path[i] = station;
+        }
+        return path;
+    }
+
+    private Route findRouteWithWaypoints(Graph graph, List<String> stops, CompiledQuery constraints,
+                                         SearchContext context, boolean useBFS) {
         Route combinedRoute = new Route();
 
-        for (int i = 0; i < fullPath.size() - 1; i++) {
-            String from = fullPath.get(i);
-            String to = fullPath.get(i + 1);
+        for (int i = 0; i < stops.size() - 1; i++) {
+            Graph.Station from = graph.getStation(stops.get(i));
+            Graph.Station to = graph.getStation(stops.get(i + 1));
 
             Route segment;
             if (useBFS) {
-                segment = findShortestRouteBFS(graph, from, to, avoidStations, null);
+                segment = findShortestRouteBFS(from, to, constraints, context);
             } else {
-                segment = findShortestDistanceRoute(graph, from, to, avoidStations, null, 0);
+                segment = findShortestDistanceRoute(graph, from, to, constraints, context, 0);
             }
 
             if (segment == null) {
@@ -342,4 +737,21 @@ public class RouteFinder {
             return Double.compare(this.distance, other.distance);
         }
     }
+
+    static class IndexDistance implements Comparable<IndexDistance> {
+        int station;
+        double distance;
+        int currentLine;
+
+        IndexDistance(int station, double distance, int currentLine) {
+            this.station = station;
+            this.distance = distance;
+            this.currentLine = currentLine;
+        }
+
+        @Override
+        public int compareTo(IndexDistance other) {
+            return Double.compare(this.distance, other.distance);
+        }
+    }
 }
\ No newline at end of file
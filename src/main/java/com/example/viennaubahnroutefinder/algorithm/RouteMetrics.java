@@ -0,0 +1,207 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-engine, per-query-type latency distributions and work counters for {@link RouteFinder}.
+ *
+ * <p>Every {@link RouteFinder} records into {@link #global()} unless given its own instance. One series
+ * exists for each {@link Engine} and {@link QueryType} combination, allocated up front, so recording is
+ * an array lookup plus a few adder increments. When {@linkplain #setEnabled(boolean) disabled},
+ * {@link RouteFinder} skips the clock reads and recording entirely.</p>
+ */
+public class RouteMetrics {
+
+    public enum Engine {
+        BFS,
+        DIJKSTRA,
+        DIJKSTRA_OFF_HEAP,
+        DFS,
+        LINE_GRAPH;
+
+        /**
+         * The on-heap engine {@link RouteFinder#findRoutes} runs for {@code algorithm}.
+         */
+        public static Engine of(RouteFinder.Algorithm algorithm) {
+            switch (algorithm) {
+                case BFS: return BFS;
+                case SHORTEST_DISTANCE: return DIJKSTRA;
+                case ALL_ROUTES_DFS: return DFS;
+                case FEWEST_CHANGES: return LINE_GRAPH;
+                default: throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+            }
+        }
+    }
+
+    /**
+     * Shape of a query, in order of precedence: waypoints, then station/line/connection constraints, then
+     * a line-change penalty.
+     */
+    public enum QueryType {
+        SIMPLE,
+        PENALTY,
+        CONSTRAINED,
+        WAYPOINTS;
+
+        public static QueryType of(RouteQuery query) {
+            if (!query.getWaypoints().isEmpty()) {
+                return WAYPOINTS;
+            }
+            if (!query.getAvoidStations().isEmpty() || !query.getAvoidLines().isEmpty()
+                    || !query.getOnlyLines().isEmpty() || !query.getAvoidConnections().isEmpty()) {
+                return CONSTRAINED;
+            }
+            return query.getLineChangePenalty() > 0 ? PENALTY : SIMPLE;
+        }
+    }
+
+    public static final class Series {
+        private final Engine engine;
+        private final QueryType queryType;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder stopped = new LongAdder();
+        private final LongAdder settledNodes = new LongAdder();
+        private final LongAdder relaxedEdges = new LongAdder();
+        private final LongAdder heapPushes = new LongAdder();
+        private final LongAdder routes = new LongAdder();
+
+        private Series(Engine engine, QueryType queryType) {
+            this.engine = engine;
+            this.queryType = queryType;
+        }
+
+        public Engine getEngine() {
+            return engine;
+        }
+
+        public QueryType getQueryType() {
+            return queryType;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getQueries() {
+            return latency.getCount();
+        }
+
+        /**
+         * Queries cut short by cancellation or their deadline.
+         */
+        public long getStopped() {
+            return stopped.sum();
+        }
+
+        public long getSettledNodes() {
+            return settledNodes.sum();
+        }
+
+        public long getRelaxedEdges() {
+            return relaxedEdges.sum();
+        }
+
+        public long getHeapPushes() {
+            return heapPushes.sum();
+        }
+
+        public long getRoutes() {
+            return routes.sum();
+        }
+
+        private void reset() {
+            latency.reset();
+            stopped.reset();
+            settledNodes.reset();
+            relaxedEdges.reset();
+            heapPushes.reset();
+            routes.reset();
+        }
+    }
+
+    private static final RouteMetrics GLOBAL = new RouteMetrics();
+
+    private final Series[] series;
+    private volatile boolean enabled = true;
+
+    public RouteMetrics() {
+        Engine[] engines = Engine.values();
+        QueryType[] types = QueryType.values();
+        this.series = new Series[engines.length * types.length];
+        for (Engine engine : engines) {
+            for (QueryType type : types) {
+                series[engine.ordinal() * types.length + type.ordinal()] = new Series(engine, type);
+            }
+        }
+    }
+
+    /**
+     * Process-wide metrics shared by the GUI, the HTTP service and the batch router.
+     */
+    public static RouteMetrics global() {
+        return GLOBAL;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Series get(Engine engine, QueryType queryType) {
+        return series[engine.ordinal() * QueryType.values().length + queryType.ordinal()];
+    }
+
+    /**
+     * Series that have recorded at least one query, in engine then query-type order.
+     */
+    public List<Series> getActiveSeries() {
+        List<Series> active = new ArrayList<>();
+        for (Series s : series) {
+            if (s.getQueries() > 0) {
+                active.add(s);
+            }
+        }
+        return active;
+    }
+
+    void record(Engine engine, QueryType queryType, long nanos, SearchContext context, int routes) {
+        Series s = get(engine, queryType);
+        s.latency.record(nanos);
+        if (context.isStopped()) {
+            s.stopped.increment();
+        }
+        s.settledNodes.add(context.getSettledNodes());
+        s.relaxedEdges.add(context.getRelaxedEdges());
+        s.heapPushes.add(context.getHeapPushes());
+        s.routes.add(routes);
+    }
+
+    public void reset() {
+        for (Series s : series) {
+            s.reset();
+        }
+    }
+
+    /**
+     * Plain-text table of the active series, for consoles and the stats panel.
+     */
+    public String format() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-18s %-12s %8s %9s %9s %9s %10s %10s%n",
+                "engine", "query", "count", "p50 ms", "p99 ms", "max ms", "settled/q", "relaxed/q"));
+        for (Series s : getActiveSeries()) {
+            LatencyHistogram latency = s.getLatency();
+            long queries = s.getQueries();
+            text.append(String.format("%-18s %-12s %8d %9.3f %9.3f %9.3f %10d %10d%n",
+                    s.getEngine(), s.getQueryType(), queries,
+                    latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+                    latency.getMaxNanos() / 1e6,
+                    s.getSettledNodes() / queries, s.getRelaxedEdges() / queries));
+        }
+        return text.toString();
+    }
+}
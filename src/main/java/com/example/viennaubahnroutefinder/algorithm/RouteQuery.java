@@ -0,0 +1,275 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.OffHeapGraph;
+
+import java.util.*;
+
+/**
+ * Immutable description of a route request: endpoints, waypoints and the constraints every engine in
+ * {@link RouteFinder} honours. Sets are kept sorted, so two queries asking for the same thing are equal.
+ *
+ * <p>Before searching, an engine {@linkplain #compile(Graph) compiles} the query against the graph into
+ * a {@link CompiledQuery} of primitive bitmasks, so checking a constraint during relaxation is a bit test
+ * rather than a string lookup.</p>
+ */
+public final class RouteQuery {
+
+    private final String start;
+    private final String end;
+    private final List<String> waypoints;
+    private final SortedSet<String> avoidStations;
+    private final SortedSet<Integer> avoidLines;
+    private final SortedSet<Integer> onlyLines;
+    private final Set<List<String>> avoidConnections;
+    private final double lineChangePenalty;
+
+    private RouteQuery(Builder builder) {
+        this.start = builder.start;
+        this.end = builder.end;
+        this.waypoints = List.copyOf(builder.waypoints);
+        this.avoidStations = Collections.unmodifiableSortedSet(new TreeSet<>(builder.avoidStations));
+        this.avoidLines = Collections.unmodifiableSortedSet(new TreeSet<>(builder.avoidLines));
+        this.onlyLines = Collections.unmodifiableSortedSet(new TreeSet<>(builder.onlyLines));
+        SortedSet<List<String>> connections = new TreeSet<>(
+                Comparator.comparing((List<String> pair) -> pair.get(0)).thenComparing(pair -> pair.get(1)));
+        connections.addAll(builder.avoidConnections);
+        this.avoidConnections = Collections.unmodifiableSet(connections);
+        this.lineChangePenalty = builder.lineChangePenalty;
+    }
+
+    public static Builder builder(String start, String end) {
+        return new Builder(start, end);
+    }
+
+    /**
+     * Query equivalent to the classic {@code RouteFinder} parameters (null collections mean "none").
+     */
+    public static RouteQuery of(String start, String end, Set<String> avoidStations,
+                                List<String> waypoints, double lineChangePenalty) {
+        Builder builder = builder(start, end).lineChangePenalty(lineChangePenalty);
+        if (avoidStations != null) {
+            builder.avoidStations(avoidStations);
+        }
+        if (waypoints != null) {
+            builder.waypoints(waypoints);
+        }
+        return builder.build();
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+
+    public List<String> getWaypoints() {
+        return waypoints;
+    }
+
+    /**
+     * Start, waypoints and end in travel order.
+     */
+    public List<String> getStops() {
+        List<String> stops = new ArrayList<>(waypoints.size() + 2);
+        stops.add(start);
+        stops.addAll(waypoints);
+        stops.add(end);
+        return stops;
+    }
+
+    public SortedSet<String> getAvoidStations() {
+        return avoidStations;
+    }
+
+    public SortedSet<Integer> getAvoidLines() {
+        return avoidLines;
+    }
+
+    public SortedSet<Integer> getOnlyLines() {
+        return onlyLines;
+    }
+
+    /**
+     * Connections to avoid, as {@code [from, to]} pairs with the names in sorted order.
+     */
+    public Set<List<String>> getAvoidConnections() {
+        return avoidConnections;
+    }
+
+    public double getLineChangePenalty() {
+        return lineChangePenalty;
+    }
+
+    /**
+     * Copy of this query with the given endpoints and no waypoints, used for waypoint segments.
+     */
+    public RouteQuery withEndpoints(String start, String end) {
+        Builder builder = toBuilder();
+        builder.start = start;
+        builder.end = end;
+        builder.waypoints.clear();
+        return builder.build();
+    }
+
+    public Builder toBuilder() {
+        Builder builder = new Builder(start, end)
+                .waypoints(waypoints)
+                .avoidStations(avoidStations)
+                .avoidLines(avoidLines)
+                .onlyLines(onlyLines)
+                .lineChangePenalty(lineChangePenalty);
+        for (List<String> pair : avoidConnections) {
+            builder.avoidConnection(pair.get(0), pair.get(1));
+        }
+        return builder;
+    }
+
+    public CompiledQuery compile(Graph graph) {
+        CompiledQuery.Builder compiled = new CompiledQuery.Builder(avoidLines, onlyLines);
+        for (String name : avoidStations) {
+            Graph.Station station = graph.getStation(name);
+            if (station != null) {
+                compiled.blockStation(station.getId());
+            }
+        }
+        for (List<String> pair : avoidConnections) {
+            Graph.Station from = graph.getStation(pair.get(0));
+            Graph.Station to = graph.getStation(pair.get(1));
+            Graph.Edge edge = (from != null && to != null) ? from.getConnections().get(to) : null;
+            if (edge != null) {
+                compiled.blockConnection(edge.getId());
+            }
+        }
+        return compiled.build();
+    }
+
+    public CompiledQuery compile(OffHeapGraph graph) {
+        CompiledQuery.Builder compiled = new CompiledQuery.Builder(avoidLines, onlyLines);
+        for (String name : avoidStations) {
+            int id = graph.stationId(name);
+            if (id >= 0) {
+                compiled.blockStation(id);
+            }
+        }
+        for (List<String> pair : avoidConnections) {
+            int from = graph.stationId(pair.get(0));
+            int to = graph.stationId(pair.get(1));
+            if (from < 0 || to < 0) {
+                continue;
+            }
+            for (int edge = graph.firstEdge(from), last = graph.endEdge(from); edge < last; edge++) {
+                if (graph.edgeTarget(edge) == to) {
+                    compiled.blockConnection(graph.edgeConnection(edge));
+                }
+            }
+        }
+        return compiled.build();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        RouteQuery other = (RouteQuery) obj;
+        return start.equals(other.start) && end.equals(other.end)
+                && waypoints.equals(other.waypoints)
+                && avoidStations.equals(other.avoidStations)
+                && avoidLines.equals(other.avoidLines)
+                && onlyLines.equals(other.onlyLines)
+                && avoidConnections.equals(other.avoidConnections)
+                && Double.compare(lineChangePenalty, other.lineChangePenalty) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(start, end, waypoints, avoidStations, avoidLines, onlyLines,
+                avoidConnections, lineChangePenalty);
+    }
+
+    @Override
+    public String toString() {
+        return start + " -> " + end
+                + (waypoints.isEmpty() ? "" : " via " + waypoints)
+                + (avoidStations.isEmpty() ? "" : " avoid " + avoidStations)
+                + (avoidLines.isEmpty() ? "" : " avoid lines " + avoidLines)
+                + (onlyLines.isEmpty() ? "" : " only lines " + onlyLines)
+                + (avoidConnections.isEmpty() ? "" : " avoid connections " + avoidConnections)
+                + (lineChangePenalty == 0 ? "" : " penalty " + lineChangePenalty);
+    }
+
+    public static final class Builder {
+        private String start;
+        private String end;
+        private final List<String> waypoints = new ArrayList<>();
+        private final Set<String> avoidStations = new HashSet<>();
+        private final Set<Integer> avoidLines = new HashSet<>();
+        private final Set<Integer> onlyLines = new HashSet<>();
+        private final Set<List<String>> avoidConnections = new HashSet<>();
+        private double lineChangePenalty;
+
+        private Builder(String start, String end) {
+            this.start = Objects.requireNonNull(start, "start");
+            this.end = Objects.requireNonNull(end, "end");
+        }
+
+        public Builder waypoint(String station) {
+            waypoints.add(station);
+            return this;
+        }
+
+        public Builder waypoints(Collection<String> stations) {
+            waypoints.addAll(stations);
+            return this;
+        }
+
+        public Builder avoidStation(String station) {
+            avoidStations.add(station);
+            return this;
+        }
+
+        public Builder avoidStations(Collection<String> stations) {
+            avoidStations.addAll(stations);
+            return this;
+        }
+
+        public Builder avoidLine(int line) {
+            avoidLines.add(line);
+            return this;
+        }
+
+        public Builder avoidLines(Collection<Integer> lines) {
+            avoidLines.addAll(lines);
+            return this;
+        }
+
+        /**
+         * Restricts the search to the given lines; may be called repeatedly to allow several lines.
+         */
+        public Builder onlyLine(int line) {
+            onlyLines.add(line);
+            return this;
+        }
+
+        public Builder onlyLines(Collection<Integer> lines) {
+            onlyLines.addAll(lines);
+            return this;
+        }
+
+        public Builder avoidConnection(String from, String to) {
+            avoidConnections.add(from.compareTo(to) <= 0 ? List.of(from, to) : List.of(to, from));
+            return this;
+        }
+
+        public Builder lineChangePenalty(double penalty) {
+            this.lineChangePenalty = penalty;
+            return this;
+        }
+
+        public RouteQuery build() {
+            return new RouteQuery(this);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted for every route query. Disabled unless a recording enables it, e.g.
+ * {@code -XX:StartFlightRecording:settings=profile} or
+ * {@code jcmd <pid> JFR.start +com.example.viennaubahnroutefinder.RouteQuery#enabled=true}.
+ */
+@Name("com.example.viennaubahnroutefinder.RouteQuery")
+@Label("Route Query")
+@Category({"Vienna U-Bahn", "Routing"})
+@Description("A route search with its work counters")
+@StackTrace(false)
+class RouteQueryEvent extends jdk.jfr.Event {
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Query Type")
+    String queryType;
+
+    @Label("Start Station")
+    String startStation;
+
+    @Label("End Station")
+    String endStation;
+
+    @Label("Stops")
+    int stops;
+
+    @Label("Nodes Settled")
+    long settledNodes;
+
+    @Label("Edges Relaxed")
+    long relaxedEdges;
+
+    @Label("Heap Pushes")
+    long heapPushes;
+
+    @Label("Routes")
+    int routes;
+
+    @Label("Stopped Early")
+    boolean stopped;
+}
@@ -0,0 +1,115 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import java.time.Duration;
+
+/**
+ * Per-search cancellation token and deadline, polled by the {@link RouteFinder} engines from inside
+ * their search loops. Once a search sees {@link #shouldStop()} return true it unwinds and returns the
+ * best result found so far; {@link #isStopped()} then tells the caller that the result may be partial.
+ *
+ * <p>Interrupting the searching thread also stops the search, so {@code Future.cancel(true)} and
+ * {@code javafx.concurrent.Task.cancel()} work without extra wiring.</p>
+ *
+ * <p>The engines also count their work here (nodes settled, edges relaxed, heap pushes, routes found);
+ * {@link RouteMetrics} aggregates the counts per query. A context belongs to one search, so the counters
+ * are plain fields.</p>
+ */
+public class SearchContext {
+
+    // Reading the clock on every relaxation would dominate cheap searches.
+    private static final int CLOCK_CHECK_INTERVAL = 256;
+
+    private final long deadlineNanos;
+    private volatile boolean cancelled;
+    private boolean stopped;
+    private int checks;
+
+    private long settledNodes;
+    private long relaxedEdges;
+    private long heapPushes;
+    private long routesFound;
+
+    public SearchContext() {
+        this.deadlineNanos = Long.MAX_VALUE;
+    }
+
+    /**
+     * @param timeout time the search may take from now, or null for no deadline
+     */
+    public SearchContext(Duration timeout) {
+        this.deadlineNanos = timeout == null ? Long.MAX_VALUE : System.nanoTime() + timeout.toNanos();
+    }
+
+    /**
+     * Requests the search to stop; safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean hasDeadline() {
+        return deadlineNanos != Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * Polled by the search loops; latches {@link #isStopped()} once cancellation, interruption or the
+     * deadline is observed.
+     */
+    public boolean shouldStop() {
+        if (stopped) {
+            return true;
+        }
+        if (cancelled || Thread.currentThread().isInterrupted()
+                || (deadlineNanos != Long.MAX_VALUE && ++checks % CLOCK_CHECK_INTERVAL == 0 && isExpired())) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /**
+     * Whether the search gave up early, i.e. its result is best-so-far rather than complete.
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public long getSettledNodes() {
+        return settledNodes;
+    }
+
+    public long getRelaxedEdges() {
+        return relaxedEdges;
+    }
+
+    public long getHeapPushes() {
+        return heapPushes;
+    }
+
+    public long getRoutesFound() {
+        return routesFound;
+    }
+
+    void nodeSettled() {
+        settledNodes++;
+    }
+
+    void edgeRelaxed() {
+        relaxedEdges++;
+    }
+
+    void heapPushed() {
+        heapPushes++;
+    }
+
+    void routeFound() {
+        routesFound++;
+    }
+}
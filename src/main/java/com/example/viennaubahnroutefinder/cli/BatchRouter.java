@@ -0,0 +1,453 @@
+package com.example.viennaubahnroutefinder.cli;
+
+import com.example.viennaubahnroutefinder.algorithm.CompactRoute;
+import com.example.viennaubahnroutefinder.algorithm.QueryLog;
+import com.example.viennaubahnroutefinder.algorithm.RouteCache;
+import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import com.example.viennaubahnroutefinder.algorithm.RouteMetrics;
+import com.example.viennaubahnroutefinder.algorithm.RouteQuery;
+import com.example.viennaubahnroutefinder.algorithm.SearchContext;
+import com.example.viennaubahnroutefinder.data.DataLoader;
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.server.CsvReader;
+import com.example.viennaubahnroutefinder.server.RouteWriter;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes routes for a file of origin/destination pairs without the GUI.
+ *
+ * <p>The input is CSV with a header naming its columns: {@code from} and {@code to} are required,
+ * {@code algorithm} (bfs, shortest, penalty, all, changes), {@code penalty}, {@code avoid}, {@code via},
+ * {@code avoidLine} and {@code onlyLine} are optional, with list values separated by {@code ;}.
+ * Fields are quoted the way the CSV output quotes them (see {@link CsvReader}), so station names with
+ * commas can be given and the output's {@code from} and {@code to} columns read back. Pairs are read lazily and searched in chunks on a fixed pool; at most two chunks per thread are in
+ * flight, so memory stays bounded however long the file is. A chunk keeps its results as
+ * {@link CompactRoute}s and, once finished, streams them to the output as a block through a
+ * {@link RouteWriter}, so rows appear in completion order and carry their input {@code index}.</p>
+ *
+ * <pre>
+ *   java -m com.example.viennaubahnroutefinder/com.example.viennaubahnroutefinder.cli.BatchRouter \
+ *        --input=od.csv --output=routes.jsonl [--format=csv|jsonl] [--threads=8] [--chunk-size=500] \
+ *        [--algorithm=shortest] [--penalty=2.0] [--deadline-ms=1000] [--data=network.csv]
+ * </pre>
+ */
+public class BatchRouter {
+
+    public enum Format {
+        CSV, JSONL
+    }
+
+    public static final class Summary {
+        private final long pairs;
+        private final long routed;
+        private final long noRoute;
+        private final long partial;
+        private final long failed;
+        private final long elapsedNanos;
+
+        private Summary(long pairs, long routed, long noRoute, long partial, long failed, long elapsedNanos) {
+            this.pairs = pairs;
+            this.routed = routed;
+            this.noRoute = noRoute;
+            this.partial = partial;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getPairs() {
+            return pairs;
+        }
+
+        public long getRouted() {
+            return routed;
+        }
+
+        public long getNoRoute() {
+            return noRoute;
+        }
+
+        /**
+         * Pairs whose search hit the deadline and were written with best-so-far routes.
+         */
+        public long getPartial() {
+            return partial;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public double getPairsPerSecond() {
+            return elapsedNanos == 0 ? 0 : pairs * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d pairs in %.2f s (%.0f pairs/s): %d routed, %d no route, %d partial, %d failed",
+                    pairs, elapsedNanos / 1e9, getPairsPerSecond(), routed, noRoute, partial, failed);
+        }
+    }
+
+    private static final double DEFAULT_PENALTY = 2.0;
+
+    private static final String CSV_HEADER = "index,from,to,algorithm,status,routes,distance,line_changes,stops,path\n";
+
+    /**
+     * The outcome of one pair, held until its chunk is written.
+     */
+    private static final class PairResult {
+        final long index;
+        final String from;
+        final String to;
+        final RouteFinder.Algorithm algorithm;
+        final String status;
+        final String message;
+        final int routeCount;
+        // All routes for JSONL, only the best one for CSV.
+        final List<CompactRoute> routes;
+
+        PairResult(long index, String from, String to, RouteFinder.Algorithm algorithm, String status,
+                   String message, int routeCount, List<CompactRoute> routes) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.algorithm = algorithm;
+            this.status = status;
+            this.message = message;
+            this.routeCount = routeCount;
+            this.routes = routes;
+        }
+    }
+
+    private final Graph graph;
+    private final RouteFinder routeFinder = new RouteFinder();
+    private final RouteCache routeCache = new RouteCache(1_000_000);
+    private final int threads;
+    private final int chunkSize;
+    private final Format format;
+    private final RouteFinder.Algorithm defaultAlgorithm;
+    private final double defaultPenalty;
+    private final Duration deadline;
+    private volatile QueryLog queryLog;
+
+    private final LongAdder routed = new LongAdder();
+    private final LongAdder noRoute = new LongAdder();
+    private final LongAdder partial = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param deadline time budget per pair, or null for none
+     */
+    public BatchRouter(Graph graph, int threads, int chunkSize, Format format,
+                       RouteFinder.Algorithm defaultAlgorithm, double defaultPenalty, Duration deadline) {
+        this.graph = graph;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.format = format;
+        this.defaultAlgorithm = defaultAlgorithm;
+        this.defaultPenalty = defaultPenalty;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Logs every routed pair, repeated pairs served from the cache included and marked as cached.
+     */
+    public void setQueryLog(QueryLog queryLog) {
+        this.queryLog = queryLog;
+    }
+
+    /**
+     * Routes every pair read from {@code input} and streams the results to {@code output}, which is
+     * flushed but not closed.
+     */
+    public Summary run(BufferedReader input, RouteWriter output) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        String[] names = CsvReader.readRow(input);
+        if (names == null) {
+            throw new IOException("Input is empty");
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            columns.put(names[i].trim(), i);
+        }
+        if (!columns.containsKey("from") || !columns.containsKey("to")) {
+            throw new IOException("Input header must contain 'from' and 'to' columns");
+        }
+
+        if (format == Format.CSV) {
+            output.appendAscii(CSV_HEADER);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore window = new Semaphore(threads * 2);
+        AtomicReference<IOException> writeError = new AtomicReference<>();
+        long pairs = 0;
+
+        try {
+            List<String[]> chunk = new ArrayList<>(chunkSize);
+            String[] row;
+            while (writeError.get() == null && (row = CsvReader.readRow(input)) != null) {
+                if (row.length == 1 && row[0].isBlank()) {
+                    continue;
+                }
+                chunk.add(row);
+                pairs++;
+                if (chunk.size() == chunkSize) {
+                    submit(pool, window, chunk, pairs - chunk.size(), columns, output, writeError);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                submit(pool, window, chunk, pairs - chunk.size(), columns, output, writeError);
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        if (writeError.get() != null) {
+            throw writeError.get();
+        }
+        output.flush();
+        return new Summary(pairs, routed.sum(), noRoute.sum(), partial.sum(), failed.sum(),
+                System.nanoTime() - startNanos);
+    }
+
+    private void submit(ExecutorService pool, Semaphore window, List<String[]> rows, long firstIndex,
+                        Map<String, Integer> columns, RouteWriter output,
+                        AtomicReference<IOException> writeError) throws InterruptedException {
+        window.acquire();
+        pool.execute(() -> {
+            try {
+                List<PairResult> results = new ArrayList<>(rows.size());
+                for (int i = 0; i < rows.size(); i++) {
+                    results.add(routePair(firstIndex + i, rows.get(i), columns));
+                }
+                synchronized (output) {
+                    for (PairResult result : results) {
+                        writeResult(output, result);
+                    }
+                }
+            } catch (IOException e) {
+                writeError.compareAndSet(null, e);
+            } finally {
+                window.release();
+            }
+        });
+    }
+
+    private PairResult routePair(long index, String[] row, Map<String, Integer> columns) {
+        String from = column(row, columns, "from");
+        String to = column(row, columns, "to");
+        RouteFinder.Algorithm algorithm = defaultAlgorithm;
+
+        try {
+            String algorithmName = column(row, columns, "algorithm");
+            double penalty = defaultPenalty;
+            if (!algorithmName.isEmpty()) {
+                algorithm = parseAlgorithm(algorithmName);
+                if (algorithmName.equals("shortest")) {
+                    penalty = 0;
+                } else if (algorithmName.equals("penalty") && penalty == 0) {
+                    penalty = DEFAULT_PENALTY;
+                }
+            }
+            String penaltyValue = column(row, columns, "penalty");
+            if (!penaltyValue.isEmpty()) {
+                penalty = Double.parseDouble(penaltyValue);
+            }
+
+            RouteQuery.Builder builder = RouteQuery.builder(from, to)
+                    .waypoints(list(column(row, columns, "via")))
+                    .avoidStations(list(column(row, columns, "avoid")))
+                    .lineChangePenalty(penalty);
+            for (String line : list(column(row, columns, "avoidLine"))) {
+                builder.avoidLine(Integer.parseInt(line.startsWith("U") ? line.substring(1) : line));
+            }
+            for (String line : list(column(row, columns, "onlyLine"))) {
+                builder.onlyLine(Integer.parseInt(line.startsWith("U") ? line.substring(1) : line));
+            }
+            RouteQuery query = builder.build();
+
+            for (String station : query.getStops()) {
+                if (graph.getStation(station) == null) {
+                    throw new IllegalArgumentException("Unknown station: " + station);
+                }
+            }
+
+            long startNanos = System.nanoTime();
+            List<RouteFinder.Route> routes;
+            boolean complete = true;
+            boolean cached = false;
+            if (deadline == null) {
+                RouteFinder.Algorithm finalAlgorithm = algorithm;
+                AtomicBoolean searched = new AtomicBoolean();
+                routes = routeCache.get(new RouteCache.Key(algorithm, query, graph.getVersion()), () -> {
+                    searched.set(true);
+                    return routeFinder.findRoutes(graph, finalAlgorithm, query);
+                });
+                cached = !searched.get();
+            } else {
+                SearchContext context = new SearchContext(deadline);
+                routes = routeFinder.findRoutes(graph, algorithm, query, context, route -> { });
+                complete = !context.isStopped();
+            }
+            QueryLog log = queryLog;
+            if (log != null) {
+                log.record(startNanos, RouteMetrics.Engine.of(algorithm), null, query, routes, !complete, cached);
+            }
+
+            String status;
+            if (!complete) {
+                partial.increment();
+                status = "partial";
+            } else if (routes.isEmpty()) {
+                noRoute.increment();
+                status = "no_route";
+            } else {
+                routed.increment();
+                status = "ok";
+            }
+            List<CompactRoute> kept = format == Format.JSONL || routes.isEmpty()
+                    ? CompactRoute.of(routes)
+                    : List.of(CompactRoute.of(routes.get(0)));
+            return new PairResult(index, from, to, algorithm, status, null, routes.size(), kept);
+        } catch (RuntimeException e) {
+            failed.increment();
+            return new PairResult(index, from, to, algorithm, "error", String.valueOf(e.getMessage()), 0, List.of());
+        }
+    }
+
+    private void writeResult(RouteWriter out, PairResult result) throws IOException {
+        if (format == Format.JSONL) {
+            out.appendAscii("{\"index\":").append(result.index).appendAscii(",\"from\":").appendJsonString(result.from)
+                    .appendAscii(",\"to\":").appendJsonString(result.to)
+                    .appendAscii(",\"algorithm\":\"").appendAscii(result.algorithm.name())
+                    .appendAscii("\",\"status\":\"").appendAscii(result.status).append('"');
+            if (result.message != null) {
+                out.appendAscii(",\"message\":").appendJsonString(result.message);
+            }
+            out.appendAscii(",\"routes\":[");
+            for (int i = 0; i < result.routes.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.appendJsonRoute(result.routes.get(i), graph);
+            }
+            out.appendAscii("]}\n");
+            return;
+        }
+
+        // CSV carries only the best route; the routes column tells how many were found.
+        out.append(result.index).append(',').appendCsv(result.from).append(',').appendCsv(result.to).append(',')
+                .appendAscii(result.algorithm.name()).append(',');
+        if (result.message != null) {
+            out.appendCsv(result.status + ": " + result.message.replace(",", ";"));
+        } else {
+            out.appendAscii(result.status);
+        }
+        out.append(',').append(result.routeCount).append(',');
+        if (!result.routes.isEmpty()) {
+            CompactRoute best = result.routes.get(0);
+            out.appendDecimal(best.getDistance()).append(',').append(best.getLineChanges()).append(',')
+                    .append(best.getStationCount()).append(',').appendCsvPath(best, graph);
+        } else {
+            out.appendAscii(",,,");
+        }
+        out.append('\n');
+    }
+
+    private static String column(String[] row, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index == null || index >= row.length ? "" : row[index].trim();
+    }
+
+    private static List<String> list(String value) {
+        if (value.isEmpty()) {
+            return List.of();
+        }
+        List<String> values = new ArrayList<>();
+        for (String part : value.split(";")) {
+            if (!part.isBlank()) {
+                values.add(part.trim());
+            }
+        }
+        return values;
+    }
+
+    static RouteFinder.Algorithm parseAlgorithm(String name) {
+        switch (name) {
+            case "bfs": return RouteFinder.Algorithm.BFS;
+            case "shortest":
+            case "penalty": return RouteFinder.Algorithm.SHORTEST_DISTANCE;
+            case "all": return RouteFinder.Algorithm.ALL_ROUTES_DFS;
+            case "changes": return RouteFinder.Algorithm.FEWEST_CHANGES;
+            default: throw new IllegalArgumentException("Unknown algorithm: " + name);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options(args);
+        RouteMetrics.global().setEnabled(!options.has("no-metrics"));
+        if (!options.has("input") || !options.has("output")) {
+            System.err.println("usage: BatchRouter --input=od.csv --output=routes.jsonl|- [--format=csv|jsonl] "
+                    + "[--threads=N] [--chunk-size=500] [--algorithm=shortest] [--penalty=0] [--deadline-ms=0] "
+                    + "[--data=network.csv] [--no-metrics] [--query-log=batch.qlog]");
+            System.exit(2);
+        }
+
+        Graph graph = options.has("data") ? DataLoader.loadGraph(Path.of(options.get("data", null))) : DataLoader.loadGraph();
+        graph.freeze();
+
+        String outputName = options.get("output", "-");
+        Format format = Format.valueOf(options.get("format",
+                outputName.endsWith(".csv") ? "csv" : "jsonl").toUpperCase(Locale.ROOT));
+        String algorithmName = options.get("algorithm", "shortest");
+        long deadlineMillis = options.getLong("deadline-ms", 0);
+
+        BatchRouter router = new BatchRouter(graph,
+                options.getInt("threads", Runtime.getRuntime().availableProcessors()),
+                options.getInt("chunk-size", 500),
+                format,
+                parseAlgorithm(algorithmName),
+                options.getDouble("penalty", algorithmName.equals("penalty") ? DEFAULT_PENALTY : 0),
+                deadlineMillis > 0 ? Duration.ofMillis(deadlineMillis) : null);
+
+        QueryLog queryLog = options.has("query-log") ? QueryLog.create(Path.of(options.get("query-log", null))) : null;
+        router.setQueryLog(queryLog);
+
+        Summary summary;
+        try (BufferedReader input = Files.newBufferedReader(Path.of(options.get("input", null)), StandardCharsets.UTF_8);
+             RouteWriter output = new RouteWriter(outputName.equals("-")
+                     ? Channels.newChannel(System.out)
+                     : FileChannel.open(Path.of(outputName), StandardOpenOption.CREATE,
+                             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            summary = router.run(input, output);
+        } finally {
+            if (queryLog != null) {
+                queryLog.close();
+            }
+        }
+        System.err.println(summary);
+        System.err.print(RouteMetrics.global().format());
+        if (summary.getFailed() > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.example.viennaubahnroutefinder.cli;
+
+import com.example.viennaubahnroutefinder.algorithm.LatencyHistogram;
+import com.example.viennaubahnroutefinder.algorithm.QueryLog;
+import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import com.example.viennaubahnroutefinder.algorithm.RouteMetrics;
+import com.example.viennaubahnroutefinder.algorithm.RouteQuery;
+import com.example.viennaubahnroutefinder.algorithm.SearchContext;
+import com.example.viennaubahnroutefinder.data.DataLoader;
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.OffHeapGraph;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a {@link QueryLog} against the current build, and compares two logs.
+ *
+ * <p>Replay re-executes every logged query, either against the engine it was logged with or against the
+ * one given by {@code --engine}, on the network it was logged for. As in the routing service, the bundled
+ * network is {@code vienna}, {@code --data} is {@code default} and {@code --networks} adds more; queries
+ * logged without a network run on {@code --default-network}. Queries the service answered from its cache
+ * are replayed too, so the engines see the logged traffic mix; {@code --misses-only} replays just the
+ * searches that reached the engines. The replayed queries are written to a new log.</p>
+ * <ul>
+ *   <li><b>Open loop</b> (default): queries are issued at their logged offsets divided by
+ *   {@code --speedup}. Response time is measured from the intended start, so a backlog shows up as
+ *   latency.</li>
+ *   <li><b>Closed loop</b>: {@code --threads} workers issue queries back to back, which measures
+ *   throughput.</li>
+ * </ul>
+ *
+ * <p>Compare matches queries by network, engine and query ({@code --ignore-engine} leaves out the engine). It
+ * reports per-engine latency percentiles of both logs, leaving out cache hits, and counts the queries whose
+ * results differ.</p>
+ *
+ * <pre>
+ *   QueryReplay --log=traffic.qlog --out=replay.qlog [--mode=open|closed] [--speedup=10] [--threads=8]
+ *               [--engine=BFS|DIJKSTRA|DIJKSTRA_OFF_HEAP|DFS|LINE_GRAPH] [--deadline-ms=0] [--data=network.csv]
+ *               [--networks=vienna-u5=u5.csv,graz=graz.csv] [--default-network=vienna] [--misses-only]
+ *   QueryReplay --compare=baseline.qlog,candidate.qlog [--ignore-engine]
+ * </pre>
+ */
+public class QueryReplay {
+
+    /**
+     * A network the replayed queries run on: its graph, an off-heap copy for the off-heap engine, and the
+     * finder that runs them.
+     */
+    public static final class Network {
+        private final Graph graph;
+        private final OffHeapGraph offHeapGraph;
+        private final RouteFinder routeFinder;
+
+        public Network(Graph graph, OffHeapGraph offHeapGraph, RouteFinder routeFinder) {
+            this.graph = graph;
+            this.offHeapGraph = offHeapGraph;
+            this.routeFinder = routeFinder;
+        }
+    }
+
+    private final Map<String, Network> networks;
+    private final String defaultNetwork;
+    private final RouteMetrics.Engine engineOverride;
+    private final long deadlineMillis;
+    private final Set<String> reportedMissing = ConcurrentHashMap.newKeySet();
+    private volatile QueryLog queryLog;
+
+    /**
+     * @param networks       networks by id
+     * @param defaultNetwork id used for entries logged without a network
+     */
+    public QueryReplay(Map<String, Network> networks, String defaultNetwork,
+                       RouteMetrics.Engine engineOverride, long deadlineMillis) {
+        this.networks = networks;
+        this.defaultNetwork = defaultNetwork;
+        this.engineOverride = engineOverride;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Appends every replayed query to {@code queryLog}, or stops with null. The caller owns the log.
+     */
+    public void setQueryLog(QueryLog queryLog) {
+        this.queryLog = queryLog;
+    }
+
+    /**
+     * Id of the network {@code entry} is replayed on.
+     */
+    public String networkOf(QueryLog.Entry entry) {
+        return entry.getNetwork() != null ? entry.getNetwork() : defaultNetwork;
+    }
+
+    /**
+     * Issues the entries at their logged offsets scaled by {@code 1 / speedup} and returns the response
+     * time distribution, measured from each query's intended start. Entries are logged when their query
+     * completes, so they are sorted by start offset first.
+     */
+    public LatencyHistogram replayOpenLoop(List<QueryLog.Entry> entries, double speedup, int threads)
+            throws InterruptedException {
+        List<QueryLog.Entry> schedule = new ArrayList<>(entries);
+        schedule.sort(Comparator.comparingLong(QueryLog.Entry::getOffsetNanos));
+
+        LatencyHistogram responseTimes = new LatencyHistogram();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long baseNanos = System.nanoTime();
+        long firstOffset = schedule.isEmpty() ? 0 : schedule.get(0).getOffsetNanos();
+
+        try {
+            for (QueryLog.Entry entry : schedule) {
+                long intendedNanos = baseNanos + (long) ((entry.getOffsetNanos() - firstOffset) / speedup);
+                long wait;
+                while ((wait = intendedNanos - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                pool.execute(() -> {
+                    if (execute(entry)) {
+                        responseTimes.record(System.nanoTime() - intendedNanos);
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        return responseTimes;
+    }
+
+    /**
+     * Runs the entries back to back on {@code threads} workers and returns the service time distribution.
+     */
+    public LatencyHistogram replayClosedLoop(List<QueryLog.Entry> entries, int threads) throws InterruptedException {
+        LatencyHistogram serviceTimes = new LatencyHistogram();
+        AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < entries.size()) {
+                    long start = System.nanoTime();
+                    if (execute(entries.get(index))) {
+                        serviceTimes.record(System.nanoTime() - start);
+                    }
+                }
+            }, "replay-" + i);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return serviceTimes;
+    }
+
+    /**
+     * Runs {@code entry} on its network. Returns false, reporting each missing network once, if that
+     * network was not given.
+     */
+    private boolean execute(QueryLog.Entry entry) {
+        String id = networkOf(entry);
+        Network network = networks.get(id);
+        if (network == null) {
+            if (reportedMissing.add(id)) {
+                System.err.println("No network " + id + " given, skipping its queries (see --networks)");
+            }
+            return false;
+        }
+        Graph graph = network.graph;
+        RouteFinder routeFinder = network.routeFinder;
+        RouteMetrics.Engine engine = engineOverride != null ? engineOverride : entry.getEngine();
+        RouteQuery query = entry.getQuery();
+        SearchContext context = deadlineMillis > 0
+                ? new SearchContext(Duration.ofMillis(deadlineMillis))
+                : new SearchContext();
+        try {
+            long startNanos = System.nanoTime();
+            int routes;
+            long resultHash;
+            switch (engine) {
+                case DIJKSTRA_OFF_HEAP: {
+                    int[] path = routeFinder.findShortestDistancePath(network.offHeapGraph, query, context);
+                    routes = path == null ? 0 : 1;
+                    resultHash = QueryLog.hashPath(network.offHeapGraph, path);
+                    break;
+                }
+                case DFS: {
+                    List<RouteFinder.Route> found = routeFinder.findAllRoutesDFS(graph, query, route -> { }, context);
+                    routes = found.size();
+                    resultHash = QueryLog.hashRoutes(found);
+                    break;
+                }
+                default: {
+                    RouteFinder.Route route;
+                    switch (engine) {
+                        case BFS: route = routeFinder.findShortestRouteBFS(graph, query, context); break;
+                        case DIJKSTRA: route = routeFinder.findShortestDistanceRoute(graph, query, context); break;
+                        case LINE_GRAPH: route = routeFinder.findFewestChangesRoute(graph, query, context); break;
+                        default: throw new IllegalArgumentException("Unknown engine " + engine);
+                    }
+                    routes = route == null ? 0 : 1;
+                    resultHash = QueryLog.hashRoute(route);
+                }
+            }
+            QueryLog log = queryLog;
+            if (log != null) {
+                log.append(new QueryLog.Entry(log.offsetOf(startNanos), engine, entry.getNetwork(), query,
+                        System.nanoTime() - startNanos, routes, context.isStopped(), false, resultHash));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Query failed on " + id + ": " + query + ": " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Prints latency percentiles per engine for both logs and counts the matched queries whose result
+     * hashes differ. Returns the number of differing queries.
+     */
+    public static long compare(List<QueryLog.Entry> baseline, List<QueryLog.Entry> candidate,
+                               boolean ignoreEngine, Appendable out) throws IOException {
+        // Cache hits measure the cache, not the engine, so they are left out of the latencies.
+        Map<RouteMetrics.Engine, LatencyHistogram[]> latencies = new EnumMap<>(RouteMetrics.Engine.class);
+        long[] cached = new long[2];
+        for (QueryLog.Entry entry : baseline) {
+            if (entry.isCached()) {
+                cached[0]++;
+            } else {
+                latencies.computeIfAbsent(entry.getEngine(), e -> newPair())[0].record(entry.getLatencyNanos());
+            }
+        }
+        for (QueryLog.Entry entry : candidate) {
+            if (entry.isCached()) {
+                cached[1]++;
+            } else {
+                latencies.computeIfAbsent(entry.getEngine(), e -> newPair())[1].record(entry.getLatencyNanos());
+            }
+        }
+
+        out.append(String.format("%-18s %10s %10s %10s %10s %10s %10s%n",
+                "engine", "count A", "count B", "p50 A ms", "p50 B ms", "p99 A ms", "p99 B ms"));
+        for (Map.Entry<RouteMetrics.Engine, LatencyHistogram[]> e : latencies.entrySet()) {
+            LatencyHistogram a = e.getValue()[0];
+            LatencyHistogram b = e.getValue()[1];
+            out.append(String.format("%-18s %10d %10d %10.3f %10.3f %10.3f %10.3f%n", e.getKey(),
+                    a.getCount(), b.getCount(),
+                    a.getValueAtPercentile(50) / 1e6, b.getValueAtPercentile(50) / 1e6,
+                    a.getValueAtPercentile(99) / 1e6, b.getValueAtPercentile(99) / 1e6));
+        }
+        out.append(String.format("%-18s %10d %10d%n", "cache hits", cached[0], cached[1]));
+
+        // Partial results legitimately differ, so only complete searches are compared.
+        Map<List<Object>, Long> expected = new HashMap<>();
+        for (QueryLog.Entry entry : baseline) {
+            if (!entry.isStopped()) {
+                expected.putIfAbsent(key(entry, ignoreEngine), entry.getResultHash());
+            }
+        }
+        long matched = 0;
+        long differing = 0;
+        Set<List<Object>> reported = new HashSet<>();
+        for (QueryLog.Entry entry : candidate) {
+            List<Object> key = key(entry, ignoreEngine);
+            Long hash = expected.get(key);
+            if (hash == null || entry.isStopped()) {
+                continue;
+            }
+            matched++;
+            if (hash != entry.getResultHash()) {
+                differing++;
+                if (reported.size() < 10 && reported.add(key)) {
+                    out.append("result differs: ").append(String.valueOf(entry.getNetwork())).append(' ')
+                            .append(entry.getEngine().toString()).append(' ')
+                            .append(entry.getQuery().toString()).append(System.lineSeparator());
+                }
+            }
+        }
+        out.append(String.format("%d queries compared, %d with different results%n", matched, differing));
+        return differing;
+    }
+
+    private static LatencyHistogram[] newPair() {
+        return new LatencyHistogram[]{new LatencyHistogram(), new LatencyHistogram()};
+    }
+
+    private static List<Object> key(QueryLog.Entry entry, boolean ignoreEngine) {
+        String network = entry.getNetwork() == null ? "" : entry.getNetwork();
+        return ignoreEngine
+                ? List.of(network, entry.getQuery())
+                : List.of(network, entry.getEngine(), entry.getQuery());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options(args);
+
+        if (options.has("compare")) {
+            String[] logs = options.get("compare", "").split(",");
+            if (logs.length != 2) {
+                throw new IllegalArgumentException("--compare needs two logs: baseline.qlog,candidate.qlog");
+            }
+            long differing = compare(QueryLog.readAll(Path.of(logs[0])), QueryLog.readAll(Path.of(logs[1])),
+                    options.has("ignore-engine"), System.out);
+            System.exit(differing == 0 ? 0 : 1);
+        }
+
+        if (!options.has("log")) {
+            System.err.println("usage: QueryReplay --log=traffic.qlog [--out=replay.qlog] [--mode=open|closed] "
+                    + "[--speedup=1] [--threads=N] [--engine=...] [--deadline-ms=0] [--data=network.csv]\n"
+                    + "       [--networks=id=file.csv,...] [--default-network=id] [--misses-only]\n"
+                    + "       QueryReplay --compare=baseline.qlog,candidate.qlog [--ignore-engine]");
+            System.exit(2);
+        }
+
+        List<QueryLog.Entry> entries = QueryLog.readAll(Path.of(options.get("log", null)));
+        if (options.has("misses-only")) {
+            entries.removeIf(QueryLog.Entry::isCached);
+        }
+        Map<String, Path> files = new HashMap<>();
+        files.put("vienna", null);
+        if (options.has("data")) {
+            files.put("default", Path.of(options.get("data", null)));
+        }
+        for (String network : options.get("networks", "").split(",")) {
+            if (network.isBlank()) {
+                continue;
+            }
+            int eq = network.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("--networks expects id=file.csv pairs: " + network);
+            }
+            files.put(network.substring(0, eq).trim(), Path.of(network.substring(eq + 1).trim()));
+        }
+        String defaultNetwork = options.get("default-network", options.has("data") ? "default" : "vienna");
+        RouteMetrics.Engine engine = options.has("engine")
+                ? RouteMetrics.Engine.valueOf(options.get("engine", null).toUpperCase(Locale.ROOT))
+                : null;
+        int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+
+        try (Arena arena = Arena.ofShared()) {
+            QueryLog out = options.has("out") ? QueryLog.create(Path.of(options.get("out", null))) : null;
+            // Only the networks the log refers to are loaded.
+            Map<String, Network> networks = new HashMap<>();
+            QueryReplay replay = new QueryReplay(networks, defaultNetwork, engine, options.getLong("deadline-ms", 0));
+            replay.setQueryLog(out);
+            for (QueryLog.Entry entry : entries) {
+                String id = replay.networkOf(entry);
+                if (networks.containsKey(id) || !files.containsKey(id)) {
+                    continue;
+                }
+                Path file = files.get(id);
+                Graph graph = file != null ? DataLoader.loadGraph(file) : DataLoader.loadGraph();
+                graph.freeze();
+                networks.put(id, new Network(graph, OffHeapGraph.copyOf(graph, arena), new RouteFinder()));
+            }
+
+            long start = System.nanoTime();
+            LatencyHistogram latency;
+            String mode = options.get("mode", "open");
+            if (mode.equals("closed")) {
+                latency = replay.replayClosedLoop(entries, threads);
+            } else {
+                latency = replay.replayOpenLoop(entries, options.getDouble("speedup", 1), threads);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            if (out != null) {
+                out.close();
+            }
+            System.out.printf("%d queries in %.2f s (%.0f/s), %s loop: p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                    latency.getCount(), seconds, latency.getCount() / seconds, mode,
+                    latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(90) / 1e6,
+                    latency.getValueAtPercentile(99) / 1e6, latency.getMaxNanos() / 1e6);
+            System.out.print(RouteMetrics.global().format());
+        }
+    }
+}
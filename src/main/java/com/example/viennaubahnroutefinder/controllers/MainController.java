@@ -1,19 +1,45 @@
 package com.example.viennaubahnroutefinder.controllers;
 
 import com.example.viennaubahnroutefinder.data.DataLoader;
+import com.example.viennaubahnroutefinder.data.NetworkWatcher;
 import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.GraphStore;
 import com.example.viennaubahnroutefinder.model.MapVisualizer;
+import com.example.viennaubahnroutefinder.model.NetworkLayout;
+import com.example.viennaubahnroutefinder.model.StationIndex;
+import com.example.viennaubahnroutefinder.algorithm.RouteCache;
 import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import com.example.viennaubahnroutefinder.algorithm.RouteMetrics;
+import com.example.viennaubahnroutefinder.algorithm.RouteQuery;
+import com.example.viennaubahnroutefinder.algorithm.SearchContext;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.control.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 public class MainController {
 
+    // Map layouts are computed once per network and reused across runs.
+    private static final Path LAYOUT_CACHE = Path.of(System.getProperty("java.io.tmpdir"), "vienna-ubahn-layouts");
+    private static final int MAX_SUGGESTIONS = 200;
+    // Run with -Dubahn.data=network.csv to use an external network, reloaded whenever the file changes.
+    private static final String DATA_PROPERTY = "ubahn.data";
+
     @FXML private ComboBox<String> startStationCombo;
     @FXML private ComboBox<String> endStationCombo;
     @FXML private ListView<String> waypointsList;
@@ -30,34 +56,54 @@ public class MainController {
     @FXML private Button findMultipleRoutesBtn;
     @FXML private Button findShortestRouteBtn;
     @FXML private Button findShortestWithPenaltyBtn;
+    @FXML private Button findFewestChangesBtn;
+    @FXML private Button cancelSearchBtn;
+    @FXML private TitledPane statsPane;
+    @FXML private TextArea statsArea;
     @FXML private TreeView<String> routeTreeView;
     @FXML private TextArea routeDetailsArea;
     @FXML private Canvas mapCanvas;
     @FXML private Label statusLabel;
 
-    private Graph graph;
+    private GraphStore graphStore;
     private RouteFinder routeFinder;
+    private RouteCache routeCache;
     private MapVisualizer mapVisualizer;
+    private StationIndex stationIndex;
+    private ObservableList<String> allStations;
     private ObservableList<String> waypointsData;
     private ObservableList<String> avoidStationsData;
     private List<RouteFinder.Route> currentRoutes;
+    private final ExecutorService searchExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "route-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Task<List<RouteFinder.Route>> searchTask;
+    private SearchContext searchContext;
 
     @FXML
     public void initialize() {
-        graph = DataLoader.loadGraph();
+        String dataPath = System.getProperty(DATA_PROPERTY);
+        graphStore = new GraphStore(loadNetwork(dataPath == null ? null : Path.of(dataPath)));
         routeFinder = new RouteFinder();
+        graphStore.addDeltaListener(routeFinder::applyDelta);
+        routeCache = new RouteCache(200_000);
+        routeCache.follow(graphStore);
         mapVisualizer = new MapVisualizer(mapCanvas);
 
         waypointsData = FXCollections.observableArrayList();
         avoidStationsData = FXCollections.observableArrayList();
 
-        List<String> stationNames = new ArrayList<>(graph.getAllStations().keySet());
-        Collections.sort(stationNames);
+        try (GraphStore.Snapshot snapshot = graphStore.acquire()) {
+            Graph graph = snapshot.getGraph();
+            showNetwork(graph, StationIndex.of(graph), NetworkLayout.loadOrCompute(graph, LAYOUT_CACHE));
+        }
 
-        startStationCombo.getItems().addAll(stationNames);
-        endStationCombo.getItems().addAll(stationNames);
-        waypointCombo.getItems().addAll(stationNames);
-        avoidStationCombo.getItems().addAll(stationNames);
+        setupStationPicker(startStationCombo);
+        setupStationPicker(endStationCombo);
+        setupStationPicker(waypointCombo);
+        setupStationPicker(avoidStationCombo);
 
         waypointsList.setItems(waypointsData);
         avoidStationsList.setItems(avoidStationsData);
@@ -70,6 +116,10 @@ public class MainController {
         findMultipleRoutesBtn.setOnAction(e -> findMultipleRoutes());
         findShortestRouteBtn.setOnAction(e -> findShortestRoute());
         findShortestWithPenaltyBtn.setOnAction(e -> findShortestRouteWithPenalty());
+        findFewestChangesBtn.setOnAction(e -> findFewestChangesRoute());
+        cancelSearchBtn.setOnAction(e -> cancelSearch());
+        cancelSearchBtn.setDisable(true);
+        statsPane.expandedProperty().addListener((obs, oldVal, newVal) -> updateStats());
 
         addWaypointBtn.setOnAction(e -> addWaypoint());
         removeWaypointBtn.setOnAction(e -> removeWaypoint());
@@ -82,12 +132,117 @@ public class MainController {
             }
         });
 
+        mapVisualizer.setOnStationClicked(name -> {
+            if (selectedStation(startStationCombo) == null) {
+                startStationCombo.setValue(name);
+            } else {
+                endStationCombo.setValue(name);
+            }
+        });
+
         mapVisualizer.clearMap();
         statusLabel.setText("Ready");
+
+        if (dataPath != null) {
+            watchNetwork(Path.of(dataPath));
+        }
+    }
+
+    private static Graph loadNetwork(Path file) {
+        if (file != null) {
+            try {
+                return DataLoader.loadValidated(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return DataLoader.loadGraph();
+    }
+
+    /**
+     * Reloads the network whenever {@code file} changes. The station index and map layout are built on the
+     * watcher thread before the new graph is published, then swapped in on the FX thread. A search that is
+     * running keeps the graph it started with.
+     */
+    private void watchNetwork(Path file) {
+        NetworkWatcher watcher = new NetworkWatcher(graphStore, file, Duration.ofMillis(500));
+        watcher.addListener(new NetworkWatcher.Listener() {
+            private StationIndex index;
+            private NetworkLayout layout;
+
+            @Override
+            public void prepare(Graph graph) {
+                routeFinder.prepare(graph);
+                index = StationIndex.of(graph);
+                layout = NetworkLayout.loadOrCompute(graph, LAYOUT_CACHE);
+            }
+
+            @Override
+            public void reloaded(Path file, Graph graph, long nanos) {
+                StationIndex preparedIndex = index;
+                NetworkLayout preparedLayout = layout;
+                Platform.runLater(() -> {
+                    showNetwork(graph, preparedIndex, preparedLayout);
+                    statusLabel.setText(String.format("Network reloaded: version %d, %d stations in %.0f ms",
+                            graph.getVersion(), graph.getStationCount(), nanos / 1e6));
+                });
+            }
+
+            @Override
+            public void failed(Path file, Exception e) {
+                Platform.runLater(() -> statusLabel.setText(
+                        "Reloading " + file.getFileName() + " failed: " + e.getMessage()));
+            }
+        });
+        try {
+            watcher.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void showNetwork(Graph graph, StationIndex index, NetworkLayout layout) {
+        ObservableList<String> previous = allStations;
+        stationIndex = index;
+        // One read-only list backs all four pickers until the user types into one of them.
+        allStations = FXCollections.unmodifiableObservableList(FXCollections.observableList(index.getNames()));
+        for (ComboBox<String> combo : List.of(startStationCombo, endStationCombo, waypointCombo, avoidStationCombo)) {
+            if (combo.getItems() == previous) {
+                combo.setItems(allStations);
+            }
+        }
+        mapVisualizer.setNetwork(graph, layout);
+    }
+
+    /**
+     * Makes the picker editable and filters its suggestions through the station index as the user types.
+     * A complete station name (typed or picked) leaves the suggestions as they are.
+     */
+    private void setupStationPicker(ComboBox<String> combo) {
+        combo.setEditable(true);
+        combo.setItems(allStations);
+        combo.getEditor().textProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal == null || newVal.isBlank()) {
+                combo.setItems(allStations);
+            } else if (!stationIndex.contains(newVal)) {
+                combo.setItems(FXCollections.observableArrayList(stationIndex.search(newVal, MAX_SUGGESTIONS)));
+                if (combo.getEditor().isFocused() && !combo.isShowing()) {
+                    combo.show();
+                }
+            }
+        });
+    }
+
+    /**
+     * The picker's value if it names a station, otherwise null.
+     */
+    private String selectedStation(ComboBox<String> combo) {
+        String value = combo.getValue();
+        return stationIndex.contains(value) ? value : null;
     }
 
     private void addWaypoint() {
-        String selected = waypointCombo.getValue();
+        String selected = selectedStation(waypointCombo);
         if (selected != null && !waypointsData.contains(selected)) {
             waypointsData.add(selected);
         }
@@ -101,7 +256,7 @@ public class MainController {
     }
 
     private void addAvoidStation() {
-        String selected = avoidStationCombo.getValue();
+        String selected = selectedStation(avoidStationCombo);
         if (selected != null && !avoidStationsData.contains(selected)) {
             avoidStationsData.add(selected);
         }
@@ -115,7 +270,7 @@ public class MainController {
     }
 
     private boolean validateInput() {
-        if (startStationCombo.getValue() == null || endStationCombo.getValue() == null) {
+        if (selectedStation(startStationCombo) == null || selectedStation(endStationCombo) == null) {
             showAlert("Please select both start and end stations.");
             return false;
         }
@@ -128,120 +283,179 @@ public class MainController {
         return true;
     }
 
+    private RouteQuery buildQuery(double lineChangePenalty) {
+        return RouteQuery.builder(startStationCombo.getValue(), endStationCombo.getValue())
+                .waypoints(waypointsData)
+                .avoidStations(avoidStationsData)
+                .lineChangePenalty(lineChangePenalty)
+                .build();
+    }
+
     private void findSingleRoute() {
         if (!validateInput()) return;
 
-        statusLabel.setText("Finding route...");
-
-        Set<String> avoidStations = new HashSet<>(avoidStationsData);
-        List<String> waypoints = new ArrayList<>(waypointsData);
-
-        RouteFinder.Route route = routeFinder.findShortestRouteBFS(
-                graph,
-                startStationCombo.getValue(),
-                endStationCombo.getValue(),
-                avoidStations,
-                waypoints
-        );
-
-        currentRoutes = new ArrayList<>();
-        if (route != null) {
-            currentRoutes.add(route);
-            displayRoutes();
-            statusLabel.setText("Route found");
-        } else {
-            statusLabel.setText("No route found");
-            routeTreeView.setRoot(null);
-            routeDetailsArea.clear();
-            mapVisualizer.clearMap();
-        }
+        runSearch(RouteFinder.Algorithm.BFS, buildQuery(0), "Finding route...",
+                count -> count > 0 ? "Route found" : "No route found");
     }
 
     private void findMultipleRoutes() {
         if (!validateInput()) return;
 
-        statusLabel.setText("Finding routes...");
-
-        Set<String> avoidStations = new HashSet<>(avoidStationsData);
-        List<String> waypoints = new ArrayList<>(waypointsData);
+        runSearch(RouteFinder.Algorithm.ALL_ROUTES_DFS, buildQuery(0), "Finding routes...",
+                count -> count > 0 ? "Found " + count + " routes" : "No routes found");
+    }
 
-        currentRoutes = routeFinder.findAllRoutesDFS(
-                graph,
-                startStationCombo.getValue(),
-                endStationCombo.getValue(),
-                avoidStations,
-                waypoints
-        );
+    private void findShortestRoute() {
+        if (!validateInput()) return;
 
-        if (!currentRoutes.isEmpty()) {
-            displayRoutes();
-            statusLabel.setText("Found " + currentRoutes.size() + " routes");
-        } else {
-            statusLabel.setText("No routes found");
-            routeTreeView.setRoot(null);
-            routeDetailsArea.clear();
-            mapVisualizer.clearMap();
-        }
+        runSearch(RouteFinder.Algorithm.SHORTEST_DISTANCE, buildQuery(0), "Finding shortest route...",
+                count -> count > 0 ? "Shortest route found" : "No route found");
     }
 
-    private void findShortestRoute() {
+    private void findShortestRouteWithPenalty() {
         if (!validateInput()) return;
 
-        statusLabel.setText("Finding shortest route...");
+        runSearch(RouteFinder.Algorithm.SHORTEST_DISTANCE, buildQuery(lineChangePenaltySlider.getValue()),
+                "Finding route with line change penalty...",
+                count -> count > 0 ? "Route found with penalty" : "No route found");
+    }
+
+    private void findFewestChangesRoute() {
+        if (!validateInput()) return;
 
-        Set<String> avoidStations = new HashSet<>(avoidStationsData);
-        List<String> waypoints = new ArrayList<>(waypointsData);
+        runSearch(RouteFinder.Algorithm.FEWEST_CHANGES, buildQuery(0), "Finding route with fewest changes...",
+                count -> count > 0 ? "Route found with fewest changes" : "No route found");
+    }
 
-        RouteFinder.Route route = routeFinder.findShortestDistanceRoute(
-                graph,
-                startStationCombo.getValue(),
-                endStationCombo.getValue(),
-                avoidStations,
-                waypoints,
-                0
-        );
+    /**
+     * Runs a search on a background thread, cancelling the one still running. Routes found by the
+     * DFS are streamed into the tree as they arrive; the other engines publish their result at the end.
+     */
+    private void runSearch(RouteFinder.Algorithm algorithm, RouteQuery query, String runningMessage,
+                           IntFunction<String> resultMessage) {
+        cancelSearch();
 
         currentRoutes = new ArrayList<>();
-        if (route != null) {
-            currentRoutes.add(route);
-            displayRoutes();
-            statusLabel.setText("Shortest route found");
-        } else {
-            statusLabel.setText("No route found");
-            routeTreeView.setRoot(null);
-            routeDetailsArea.clear();
-            mapVisualizer.clearMap();
-        }
+        routeTreeView.setRoot(null);
+        routeDetailsArea.clear();
+        mapVisualizer.clearMap();
+        statusLabel.setText(runningMessage);
+
+        SearchContext context = new SearchContext();
+        ConcurrentLinkedQueue<RouteFinder.Route> pending = new ConcurrentLinkedQueue<>();
+        AtomicBoolean drainScheduled = new AtomicBoolean();
+
+        Task<List<RouteFinder.Route>> task = new Task<>() {
+            @Override
+            protected List<RouteFinder.Route> call() {
+                try (GraphStore.Snapshot snapshot = graphStore.acquire()) {
+                    Graph graph = snapshot.getGraph();
+                    RouteCache.Key key = new RouteCache.Key(algorithm, query, graph.getVersion());
+
+                    List<RouteFinder.Route> cached = routeCache.getIfPresent(key);
+                    if (cached != null) {
+                        return cached;
+                    }
+
+                    AtomicInteger found = new AtomicInteger();
+                    Consumer<RouteFinder.Route> onRoute = algorithm != RouteFinder.Algorithm.ALL_ROUTES_DFS
+                            ? route -> { }
+                            : route -> {
+                                pending.add(route);
+                                updateMessage(runningMessage + " " + found.incrementAndGet() + " found so far");
+                                if (drainScheduled.compareAndSet(false, true)) {
+                                    Platform.runLater(() -> {
+                                        drainScheduled.set(false);
+                                        drainPendingRoutes(this, pending);
+                                    });
+                                }
+                            };
+                    // Every engine runs under the task's context, so Cancel Search stops it, not just hides it.
+                    List<RouteFinder.Route> routes = routeFinder.findRoutes(graph, algorithm, query, context, onRoute);
+
+                    if (!context.isStopped()) {
+                        routeCache.put(key, routes);
+                    }
+                    return routes;
+                }
+            }
+        };
+
+        task.messageProperty().addListener((obs, oldVal, newVal) -> {
+            if (task == searchTask && newVal != null && !newVal.isEmpty()) {
+                statusLabel.setText(newVal);
+            }
+        });
+        task.setOnSucceeded(e -> {
+            if (task != searchTask) return;
+            drainPendingRoutes(task, pending);
+            searchTask = null;
+            cancelSearchBtn.setDisable(true);
+
+            List<RouteFinder.Route> routes = task.getValue();
+            if (currentRoutes.size() != routes.size()) {
+                currentRoutes = new ArrayList<>(routes);
+                displayRoutes();
+            }
+            if (currentRoutes.isEmpty()) {
+                routeTreeView.setRoot(null);
+            }
+            statusLabel.setText(resultMessage.apply(currentRoutes.size()));
+            updateStats();
+        });
+        task.setOnFailed(e -> {
+            if (task != searchTask) return;
+            searchTask = null;
+            cancelSearchBtn.setDisable(true);
+            statusLabel.setText("Search failed: " + task.getException().getMessage());
+            updateStats();
+        });
+
+        searchTask = task;
+        searchContext = context;
+        cancelSearchBtn.setDisable(false);
+        searchExecutor.execute(task);
     }
 
-    private void findShortestRouteWithPenalty() {
-        if (!validateInput()) return;
+    private void updateStats() {
+        if (statsPane.isExpanded()) {
+            RouteMetrics metrics = routeFinder.getMetrics();
+            statsArea.setText(metrics.getActiveSeries().isEmpty() ? "No searches yet" : metrics.format()
+                    + String.format("%ncache: %s", routeCache.getStats()));
+        }
+    }
 
-        statusLabel.setText("Finding route with line change penalty...");
+    private void cancelSearch() {
+        if (searchTask != null) {
+            searchContext.cancel();
+            searchTask.cancel();
+            searchTask = null;
+            cancelSearchBtn.setDisable(true);
+            statusLabel.setText("Search cancelled");
+        }
+    }
 
-        Set<String> avoidStations = new HashSet<>(avoidStationsData);
-        List<String> waypoints = new ArrayList<>(waypointsData);
-        double penalty = lineChangePenaltySlider.getValue();
+    private void drainPendingRoutes(Task<?> task, Queue<RouteFinder.Route> pending) {
+        if (task != searchTask || pending.isEmpty()) {
+            return;
+        }
 
-        RouteFinder.Route route = routeFinder.findShortestDistanceRoute(
-                graph,
-                startStationCombo.getValue(),
-                endStationCombo.getValue(),
-                avoidStations,
-                waypoints,
-                penalty
-        );
+        if (routeTreeView.getRoot() == null) {
+            TreeItem<String> root = new TreeItem<>();
+            root.setExpanded(true);
+            routeTreeView.setRoot(root);
+        }
 
-        currentRoutes = new ArrayList<>();
-        if (route != null) {
+        boolean first = currentRoutes.isEmpty();
+        RouteFinder.Route route;
+        while ((route = pending.poll()) != null) {
             currentRoutes.add(route);
-            displayRoutes();
-            statusLabel.setText("Route found with penalty");
-        } else {
-            statusLabel.setText("No route found");
-            routeTreeView.setRoot(null);
-            routeDetailsArea.clear();
-            mapVisualizer.clearMap();
+            routeTreeView.getRoot().getChildren().add(createRouteItem(currentRoutes.size() - 1, route));
+        }
+        routeTreeView.getRoot().setValue("Routes (" + currentRoutes.size() + ")");
+
+        if (first && !currentRoutes.isEmpty()) {
+            mapVisualizer.drawRoute(currentRoutes.get(0));
         }
     }
 
@@ -249,31 +463,7 @@ public class MainController {
         TreeItem<String> root = new TreeItem<>("Routes (" + currentRoutes.size() + ")");
 
         for (int i = 0; i < currentRoutes.size(); i++) {
-            RouteFinder.Route route = currentRoutes.get(i);
-            String routeInfo = String.format("Route %d: %d stations, %.2f km, %d changes",
-                    i + 1,
-                    route.getStations().size(),
-                    route.getTotalDistance(),
-                    route.getLineChanges()
-            );
-
-            TreeItem<String> routeItem = new TreeItem<>(routeInfo);
-            routeItem.setExpanded(true);
-
-            for (int j = 0; j < route.getStations().size(); j++) {
-                Graph.Station station = route.getStations().get(j);
-                String stationInfo = station.getName();
-
-                if (j < route.getEdges().size()) {
-                    Graph.Edge edge = route.getEdges().get(j);
-                    stationInfo += " → [U" + edge.getLine() + "]";
-                }
-
-                TreeItem<String> stationItem = new TreeItem<>(stationInfo);
-                routeItem.getChildren().add(stationItem);
-            }
-
-            root.getChildren().add(routeItem);
+            root.getChildren().add(createRouteItem(i, currentRoutes.get(i)));
         }
 
         root.setExpanded(true);
@@ -284,6 +474,37 @@ public class MainController {
         }
     }
 
+    private TreeItem<String> createRouteItem(int index, RouteFinder.Route route) {
+        String partial = route.isPartial()
+                ? " (stopped at " + route.getStations().get(route.getStations().size() - 1).getName() + ")"
+                : "";
+        String routeInfo = String.format("Route %d: %d stations, %.2f km, %d changes%s",
+                index + 1,
+                route.getStations().size(),
+                route.getTotalDistance(),
+                route.getLineChanges(),
+                partial
+        );
+
+        TreeItem<String> routeItem = new TreeItem<>(routeInfo);
+        routeItem.setExpanded(true);
+
+        for (int j = 0; j < route.getStations().size(); j++) {
+            Graph.Station station = route.getStations().get(j);
+            String stationInfo = station.getName();
+
+            if (j < route.getEdges().size()) {
+                Graph.Edge edge = route.getEdges().get(j);
+                stationInfo += " → [U" + edge.getLine() + "]";
+            }
+
+            TreeItem<String> stationItem = new TreeItem<>(stationInfo);
+            routeItem.getChildren().add(stationItem);
+        }
+
+        return routeItem;
+    }
+
     private void displayRouteDetails(TreeItem<String> selectedItem) {
         if (selectedItem == null || selectedItem.getParent() == null) {
             return;
@@ -310,11 +531,11 @@ public class MainController {
 
             for (int i = 0; i < route.getStations().size(); i++) {
                 Graph.Station station = route.getStations().get(i);
-                details.append(String.format("%2d. %s", i + 1, station.getName()));
+                details.append(i < 9 ? " " : "").append(i + 1).append(". ").append(station.getName());
 
                 if (i < route.getEdges().size()) {
                     Graph.Edge edge = route.getEdges().get(i);
-                    details.append(String.format(" → U%d (%s) → ", edge.getLine(), edge.getColor()));
+                    details.append(" → U").append(edge.getLine()).append(" (").append(edge.getColor()).append(") → ");
                 }
 
                 details.append("\n");
@@ -322,6 +543,9 @@ public class MainController {
 
             routeDetailsArea.setText(details.toString());
             mapVisualizer.drawRoute(route);
+            mapVisualizer.selectStation(selectedItem != routeItem
+                    ? route.getStations().get(routeItem.getChildren().indexOf(selectedItem)).getName()
+                    : null);
         }
     }
 
@@ -3,37 +3,137 @@ package com.example.viennaubahnroutefinder.data;
 import com.example.viennaubahnroutefinder.model.Graph;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.UnaryOperator;
 
 public class DataLoader {
 
+    private static final String BUNDLED_NETWORK = "/vienna_subway.csv";
+
     public static com.example.viennaubahnroutefinder.model.Graph loadGraph() {
         com.example.viennaubahnroutefinder.model.Graph graph = new Graph();
 
-        try (InputStream is = DataLoader.class.getResourceAsStream("/vienna_subway.csv");
+        try (InputStream is = DataLoader.class.getResourceAsStream(BUNDLED_NETWORK);
              BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
 
-            String line = reader.readLine();
+            readConnections(reader, graph);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return graph;
+    }
+
+    /**
+     * Loads a network in the same CSV format as the bundled one from an external file.
+     */
+    public static Graph loadGraph(Path file) throws IOException {
+        Graph graph = new Graph();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            readConnections(reader, graph);
+        }
+
+        return graph;
+    }
+
+    /**
+     * Like {@link #loadGraph(Path)}, but rejects the file instead of skipping what it cannot read: every
+     * non-blank row must have a start, a stop, a numeric line and a colour, and the network must not be
+     * empty. Used when a file is reloaded while the application runs, where a half-written or broken file
+     * must not replace a working network.
+     */
+    public static Graph loadValidated(Path file) throws IOException {
+        return loadValidated(file, UnaryOperator.identity());
+    }
+
+    /**
+     * Same as {@link #loadValidated(Path)}, passing every station name and colour through {@code strings}
+     * so networks loaded side by side can share one copy of each.
+     */
+    public static Graph loadValidated(Path file, UnaryOperator<String> strings) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return readValidated(reader, file.toString(), strings);
+        }
+    }
+
+    /**
+     * The bundled Vienna network, read with the checks of {@link #loadValidated(Path, UnaryOperator)}.
+     */
+    public static Graph loadBundled(UnaryOperator<String> strings) throws IOException {
+        InputStream is = DataLoader.class.getResourceAsStream(BUNDLED_NETWORK);
+        if (is == null) {
+            throw new IOException(BUNDLED_NETWORK + " is missing");
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            return readValidated(reader, BUNDLED_NETWORK, strings);
+        }
+    }
+
+    private static Graph readValidated(BufferedReader reader, String source, UnaryOperator<String> strings)
+            throws IOException {
+        Graph graph = readConnections(reader, new Graph(), source, strings, true);
+        if (graph.getStationCount() == 0) {
+            throw new IOException(source + " has no connections");
+        }
+        return graph;
+    }
 
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length >= 4) {
-                    String start = parts[0].trim();
-                    String stop = parts[1].trim();
-                    int lineNumber = Integer.parseInt(parts[2].trim());
-                    String color = parts[3].trim();
+    private static void readConnections(BufferedReader reader, Graph graph) throws IOException {
+        readConnections(reader, graph, null, UnaryOperator.identity(), false);
+    }
 
-                    graph.addStation(start);
-                    graph.addStation(stop);
-                    graph.addConnection(start, stop, lineNumber, color);
+    /**
+     * Adds the connection on every row after the header to {@code graph}. Leniently, rows with fewer than
+     * four columns are skipped; strictly, a row without a start, a stop, a numeric line and a colour, or
+     * connecting a station to itself, fails the whole read.
+     */
+    private static Graph readConnections(BufferedReader reader, Graph graph, String source,
+                                         UnaryOperator<String> strings, boolean strict) throws IOException {
+        String line = reader.readLine();
+        if (line == null && strict) {
+            throw new IOException(source + " is empty");
+        }
+        int row = 1;
+        while ((line = reader.readLine()) != null) {
+            row++;
+            if (strict && line.isBlank()) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            boolean complete = parts.length >= 4
+                    && !parts[0].isBlank() && !parts[1].isBlank() && !parts[3].isBlank();
+            if (strict && !complete) {
+                throw new IOException(source + ":" + row + ": expected Start,Stop,Line,Color");
+            }
+            if (parts.length < 4) {
+                continue;
+            }
+            String start = strings.apply(parts[0].trim());
+            String stop = strings.apply(parts[1].trim());
+            int lineNumber;
+            try {
+                lineNumber = Integer.parseInt(parts[2].trim());
+            } catch (NumberFormatException e) {
+                if (!strict) {
+                    throw e;
                 }
+                throw new IOException(source + ":" + row + ": line is not a number: " + parts[2].trim());
+            }
+            if (strict && start.equals(stop)) {
+                throw new IOException(source + ":" + row + ": connection from " + start + " to itself");
             }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+            graph.addStation(start);
+            graph.addStation(stop);
+            graph.addConnection(start, stop, lineNumber, strings.apply(parts[3].trim()));
         }
-
         return graph;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,324 @@
+package com.example.viennaubahnroutefinder.data;
+
+import com.example.viennaubahnroutefinder.cli.Options;
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.OffHeapGraph;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.foreign.Arena;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Deterministic synthetic transit networks for scale testing, from a hundred to a million stations.
+ *
+ * <p>The network is laid out on a square lattice. Grid lines run along evenly spaced (jittered) rows and
+ * columns, radial lines run through the centre at evenly spaced (jittered) angles, and every line stops in
+ * each lattice cell it passes. Where several lines stop in the same cell, that cell becomes one shared
+ * transfer station with probability {@code transferDensity}; otherwise each line keeps its own platform
+ * station there. The decision is a hash of the seed and the cell, so the same settings always produce the
+ * same network and the CSV can be streamed without holding the graph in memory.</p>
+ *
+ * <p>Shared stations are named {@code S<x>_<y>}, line-private ones {@code S<x>_<y>_L<line>}. The station
+ * count is a target: the lattice size is chosen so the expected number of stations after merging is close
+ * to it.</p>
+ *
+ * <pre>
+ *   java -m com.example.viennaubahnroutefinder/com.example.viennaubahnroutefinder.data.NetworkGenerator \
+ *        --stations=100000 [--lines=150] [--radial-lines=16] [--transfer-density=0.8] [--seed=1] \
+ *        [--csv=network.csv] [--snapshot=network.ubhn]
+ * </pre>
+ */
+public class NetworkGenerator {
+
+    private static final String[] COLORS = {"red", "purple", "orange", "green", "brown", "blue", "pink", "grey"};
+
+    // Spreads the synthetic lattice over roughly the extent of Vienna when coordinates are assigned.
+    private static final double BASE_LATITUDE = 48.12;
+    private static final double BASE_LONGITUDE = 16.22;
+    private static final double EXTENT_DEGREES = 0.3;
+
+    /**
+     * Receives the generated segments in line order.
+     */
+    public interface SegmentSink {
+        void segment(String from, String to, int line, String color);
+    }
+
+    public static class Builder {
+        private final int stations;
+        private int lines;
+        private int radialLines = -1;
+        private double transferDensity = 0.8;
+        private long seed = 1;
+
+        private Builder(int stations) {
+            if (stations < 4) {
+                throw new IllegalArgumentException("A network needs at least 4 stations");
+            }
+            this.stations = stations;
+            this.lines = Math.max(4, (int) Math.sqrt(stations) / 2);
+        }
+
+        public Builder lines(int lines) {
+            if (lines < 2) {
+                throw new IllegalArgumentException("A network needs at least 2 lines");
+            }
+            this.lines = lines;
+            return this;
+        }
+
+        /**
+         * How many of the lines are radial (default an eighth); the rest alternate between rows and columns.
+         */
+        public Builder radialLines(int radialLines) {
+            if (radialLines < 0) {
+                throw new IllegalArgumentException("Radial lines must not be negative");
+            }
+            this.radialLines = radialLines;
+            return this;
+        }
+
+        /**
+         * Probability that a cell where several lines stop becomes a single transfer station.
+         */
+        public Builder transferDensity(double transferDensity) {
+            if (transferDensity < 0 || transferDensity > 1) {
+                throw new IllegalArgumentException("Transfer density must be between 0 and 1");
+            }
+            this.transferDensity = transferDensity;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public NetworkGenerator build() {
+            if (radialLines < 0) {
+                radialLines = Math.max(1, lines / 8);
+            }
+            if (radialLines > lines) {
+                throw new IllegalArgumentException("Radial lines must not exceed " + lines);
+            }
+            return new NetworkGenerator(this);
+        }
+    }
+
+    private final int lineCount;
+    private final int radialCount;
+    private final double transferDensity;
+    private final long seed;
+    private final int size;
+    private final int[] gridPositions;
+    private final double[] radialAngles;
+
+    private NetworkGenerator(Builder builder) {
+        this.lineCount = builder.lines;
+        this.radialCount = builder.radialLines;
+        this.transferDensity = builder.transferDensity;
+        this.seed = builder.seed;
+
+        int gridCount = lineCount - radialCount;
+        int rows = (gridCount + 1) / 2;
+        int columns = gridCount / 2;
+        // Each line stops in about size + 1 cells; row/column crossings merge with the transfer density.
+        this.size = Math.max(2, (int) Math.ceil((builder.stations + transferDensity * rows * columns) / lineCount) - 1);
+
+        Random random = new Random(seed);
+        this.gridPositions = new int[gridCount];
+        for (int i = 0; i < gridCount; i++) {
+            int count = i % 2 == 0 ? rows : columns;
+            double spacing = (double) size / count;
+            double jitter = (random.nextDouble() - 0.5) * 0.5;
+            gridPositions[i] = (int) Math.max(0, Math.min(size, Math.round((i / 2 + 0.5 + jitter) * spacing)));
+        }
+        this.radialAngles = new double[radialCount];
+        for (int i = 0; i < radialCount; i++) {
+            radialAngles[i] = Math.PI * (i + 0.25 + random.nextDouble() * 0.5) / radialCount;
+        }
+    }
+
+    public static Builder builder(int stations) {
+        return new Builder(stations);
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Side of the lattice in cells; coordinates of stations run from 0 to this value.
+     */
+    public int getLatticeSize() {
+        return size;
+    }
+
+    /**
+     * Emits every segment of every line. Nothing is retained between lines.
+     */
+    public void generate(SegmentSink sink) {
+        for (int line = 1; line <= lineCount; line++) {
+            String color = COLORS[(line - 1) % COLORS.length];
+            int[] cells = lineCells(line);
+            String previous = stationName(cells[0], cells[1], line);
+            for (int i = 2; i < cells.length; i += 2) {
+                String next = stationName(cells[i], cells[i + 1], line);
+                sink.segment(previous, next, line, color);
+                previous = next;
+            }
+        }
+    }
+
+    /**
+     * Builds the network as a {@link Graph}, with station coordinates spread over roughly the area of Vienna.
+     */
+    public Graph toGraph() {
+        Graph graph = new Graph();
+        double scale = EXTENT_DEGREES / size;
+        generate((from, to, line, color) -> {
+            addStation(graph, from, scale);
+            addStation(graph, to, scale);
+            graph.addConnection(from, to, line, color);
+        });
+        return graph;
+    }
+
+    /**
+     * Streams the network in the {@link DataLoader} CSV format.
+     */
+    public void writeCsv(Writer writer) throws IOException {
+        writer.write("Start,Stop,Line,Color\n");
+        try {
+            generate((from, to, line, color) -> {
+                try {
+                    writer.write(from + "," + to + "," + line + "," + color + "\n");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    public void writeCsv(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeCsv(writer);
+        }
+    }
+
+    /**
+     * Writes the network as an {@link OffHeapGraph} snapshot that {@link OffHeapGraph#map} can open directly.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        Graph graph = toGraph();
+        try (Arena arena = Arena.ofConfined()) {
+            OffHeapGraph.copyOf(graph, arena).writeTo(file);
+        }
+    }
+
+    /**
+     * Lattice cells a line stops in, as x, y pairs, with consecutive duplicates removed.
+     */
+    private int[] lineCells(int line) {
+        int index = line - 1;
+        int gridCount = lineCount - radialCount;
+        int[] cells = new int[4 * (size + 1)];
+        int length = 0;
+
+        if (index < gridCount) {
+            int position = gridPositions[index];
+            boolean row = index % 2 == 0;
+            for (int step = 0; step <= size; step++) {
+                cells[length++] = row ? step : position;
+                cells[length++] = row ? position : step;
+            }
+            return Arrays.copyOf(cells, length);
+        }
+
+        // Radial: from one edge of the lattice through the centre to the opposite edge.
+        double angle = radialAngles[index - gridCount];
+        double dx = Math.cos(angle);
+        double dy = Math.sin(angle);
+        double centre = size / 2.0;
+        double reach = centre / Math.max(Math.abs(dx), Math.abs(dy));
+        int steps = (int) Math.ceil(2 * reach);
+        int lastX = -1;
+        int lastY = -1;
+        for (int step = 0; step <= steps; step++) {
+            double t = -reach + 2 * reach * step / steps;
+            int x = (int) Math.max(0, Math.min(size, Math.round(centre + t * dx)));
+            int y = (int) Math.max(0, Math.min(size, Math.round(centre + t * dy)));
+            if (x != lastX || y != lastY) {
+                if (length == cells.length) {
+                    cells = Arrays.copyOf(cells, cells.length * 2);
+                }
+                cells[length++] = x;
+                cells[length++] = y;
+                lastX = x;
+                lastY = y;
+            }
+        }
+        return Arrays.copyOf(cells, length);
+    }
+
+    private String stationName(int x, int y, int line) {
+        return isTransferCell(x, y) ? "S" + x + "_" + y : "S" + x + "_" + y + "_L" + line;
+    }
+
+    private boolean isTransferCell(int x, int y) {
+        long h = seed * 0x9E3779B97F4A7C15L + ((long) x << 32 | (y & 0xFFFFFFFFL));
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (h >>> 11) * 0x1.0p-53 < transferDensity;
+    }
+
+    private static void addStation(Graph graph, String name, double scale) {
+        if (graph.getStation(name) != null) {
+            return;
+        }
+        int separator = name.indexOf('_');
+        int end = name.indexOf('_', separator + 1);
+        int x = Integer.parseInt(name.substring(1, separator));
+        int y = Integer.parseInt(name.substring(separator + 1, end < 0 ? name.length() : end));
+        graph.addStation(name, BASE_LATITUDE + y * scale, BASE_LONGITUDE + x * scale * 1.5);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options(args);
+        if (!options.has("stations") || (!options.has("csv") && !options.has("snapshot"))) {
+            System.err.println("usage: NetworkGenerator --stations=N [--lines=L] [--radial-lines=R] "
+                    + "[--transfer-density=0.8] [--seed=1] [--csv=network.csv] [--snapshot=network.ubhn]");
+            System.exit(2);
+        }
+
+        Builder builder = builder(options.getInt("stations", 0))
+                .transferDensity(options.getDouble("transfer-density", 0.8))
+                .seed(options.getLong("seed", 1));
+        if (options.has("lines")) {
+            builder.lines(options.getInt("lines", 0));
+        }
+        if (options.has("radial-lines")) {
+            builder.radialLines(options.getInt("radial-lines", 0));
+        }
+        NetworkGenerator generator = builder.build();
+
+        if (options.has("csv")) {
+            generator.writeCsv(Path.of(options.get("csv", null)));
+        }
+        if (options.has("snapshot")) {
+            generator.writeSnapshot(Path.of(options.get("snapshot", null)));
+        }
+        System.err.println("Generated " + generator.getLineCount() + " lines on a "
+                + (generator.getLatticeSize() + 1) + "x" + (generator.getLatticeSize() + 1) + " lattice");
+    }
+}
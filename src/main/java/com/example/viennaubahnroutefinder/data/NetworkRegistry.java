@@ -0,0 +1,397 @@
+package com.example.viennaubahnroutefinder.data;
+
+import com.example.viennaubahnroutefinder.algorithm.RouteCache;
+import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.GraphStore;
+import com.example.viennaubahnroutefinder.model.StationIndex;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Named networks (cities, or scenarios such as a planned extension) served from one process, of which only
+ * the recently used ones are kept in memory.
+ *
+ * <p>Registering a network only records where its CSV is. The first {@link #get} loads and validates it,
+ * freezes it into a {@link GraphStore}, and builds its station index and line-graph index. Concurrent
+ * first queries wait for that one load. Station names and colours go through a shared weak string table,
+ * so variants of the same city hold one copy of each name.</p>
+ *
+ * <p>Each loaded network has an estimated size: its graph and indexes plus the routes in its result cache
+ * and its cached shortest-path trees. The total is checked against the memory budget whenever a network is
+ * loaded, and whenever a network's estimate has grown by a 64th of the budget since it was last checked,
+ * since its caches fill while it is queried. If the total exceeds the budget, the least recently queried
+ * networks are dropped until it fits. The network being loaded or queried is always kept. A dropped
+ * network is loaded again on its next query; queries still running on it are not affected.</p>
+ *
+ * <pre>
+ * NetworkRegistry registry = new NetworkRegistry(512L &lt;&lt; 20, 200_000, RouteFinder::new);
+ * registry.registerBundled("vienna");
+ * registry.register("vienna-u5", Path.of("scenarios/u5.csv"));
+ * NetworkRegistry.Network network = registry.get("vienna-u5");
+ * </pre>
+ */
+public class NetworkRegistry {
+
+    // Rough retained sizes, measured on a generated 50,000-station network: a station with its name, map
+    // entries, connection map and its share of the station and line-graph indexes, and one direction of a
+    // connection with its map entry. A cached route holds a station and an edge reference per stop, and a
+    // cached shortest-path tree a distance and a parent per station.
+    private static final long STATION_BYTES = 440;
+    private static final long EDGE_BYTES = 96;
+    private static final long CACHED_STOP_BYTES = 16;
+    private static final long TREE_STATION_BYTES = 12;
+    private static final long BUDGET_CHECK_STEPS = 64;
+
+    public static final class Network {
+        private final String id;
+        private final GraphStore graphStore;
+        private final RouteFinder routeFinder;
+        private final RouteCache routeCache;
+        private volatile StationIndex stationIndex;
+        private volatile long graphBytes;
+        private volatile int stationIdLimit;
+        private volatile long checkedBytes;
+        private volatile NetworkWatcher watcher;
+
+        private Network(String id, Graph graph, RouteFinder routeFinder, RouteCache routeCache) {
+            this.id = id;
+            this.routeFinder = routeFinder;
+            this.routeCache = routeCache;
+            this.graphStore = new GraphStore(graph);
+            graphStore.addDeltaListener(routeFinder::applyDelta);
+            routeCache.follow(graphStore);
+            routeFinder.prepare(graph);
+            this.stationIndex = StationIndex.of(graph);
+            this.graphBytes = estimateBytes(graph);
+            this.stationIdLimit = graph.getStationIdLimit();
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public GraphStore getGraphStore() {
+            return graphStore;
+        }
+
+        /**
+         * The finder used for this network; it keeps the network's line-graph index.
+         */
+        public RouteFinder getRouteFinder() {
+            return routeFinder;
+        }
+
+        /**
+         * Results for this network only; versions of different networks' graphs overlap.
+         */
+        public RouteCache getRouteCache() {
+            return routeCache;
+        }
+
+        public StationIndex getStationIndex() {
+            return stationIndex;
+        }
+
+        /**
+         * The watcher reloading this network, or null if it is not watched.
+         */
+        public NetworkWatcher getWatcher() {
+            return watcher;
+        }
+
+        public long getEstimatedBytes() {
+            long trees = routeFinder.getShortestPathTrees().getCachedTreeCount();
+            return graphBytes + routeCache.getStats().getWeight() * CACHED_STOP_BYTES
+                    + trees * stationIdLimit * TREE_STATION_BYTES;
+        }
+    }
+
+    private static final class Entry {
+        final String id;
+        final Path file; // null for the bundled network
+        CompletableFuture<Network> network;
+        volatile long lastUsed;
+
+        Entry(String id, Path file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    private final long memoryBudget;
+    private final long routeCacheWeight;
+    private final Supplier<RouteFinder> routeFinders;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, WeakReference<String>> strings = new WeakHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final List<NetworkWatcher.Listener> watchListeners = new CopyOnWriteArrayList<>();
+    private volatile Duration watchQuietPeriod;
+
+    /**
+     * @param memoryBudget     estimated bytes the loaded networks may take together
+     * @param routeCacheWeight weight budget of each network's {@link RouteCache}
+     * @param routeFinders     creates the finder of each loaded network
+     */
+    public NetworkRegistry(long memoryBudget, long routeCacheWeight, Supplier<RouteFinder> routeFinders) {
+        this.memoryBudget = memoryBudget;
+        this.routeCacheWeight = routeCacheWeight;
+        this.routeFinders = routeFinders;
+    }
+
+    /**
+     * Registers a network read from a CSV in the format of the bundled one.
+     */
+    public void register(String id, Path file) {
+        add(new Entry(id, file));
+    }
+
+    /**
+     * Registers the network bundled with the application.
+     */
+    public void registerBundled(String id) {
+        add(new Entry(id, null));
+    }
+
+    /**
+     * Reloads file networks while they are loaded whenever their file changes, see {@link NetworkWatcher}.
+     * Applies to networks loaded afterwards.
+     */
+    public void setWatch(Duration quietPeriod) {
+        this.watchQuietPeriod = quietPeriod;
+    }
+
+    /**
+     * Adds {@code listener} to the watcher of every file network loaded afterwards, e.g. to report reloads.
+     */
+    public void addWatchListener(NetworkWatcher.Listener listener) {
+        watchListeners.add(listener);
+    }
+
+    public Set<String> getIds() {
+        return Collections.unmodifiableSet(new TreeSet<>(entries.keySet()));
+    }
+
+    /**
+     * The network registered as {@code id} if it is in memory, without loading it or counting as a use.
+     */
+    public Network getIfLoaded(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : loaded(entry);
+    }
+
+    /**
+     * The network registered as {@code id}, loading it if it is not in memory.
+     *
+     * @throws NoSuchElementException if no network is registered under {@code id}
+     * @throws IOException            if the network cannot be loaded; the next call tries again
+     */
+    public Network get(String id) throws IOException {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            throw new NoSuchElementException("Unknown network: " + id);
+        }
+        entry.lastUsed = clock.incrementAndGet();
+
+        CompletableFuture<Network> future;
+        boolean mine = false;
+        synchronized (entry) {
+            future = entry.network;
+            if (future == null) {
+                future = new CompletableFuture<>();
+                entry.network = future;
+                mine = true;
+            }
+        }
+
+        if (mine) {
+            try {
+                Network network = load(entry);
+                future.complete(network);
+                loads.increment();
+                evictOverBudget(entry);
+                return network;
+            } catch (IOException | RuntimeException e) {
+                synchronized (entry) {
+                    entry.network = null;
+                }
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        Network network;
+        try {
+            network = future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        checkBudget(entry, network);
+        return network;
+    }
+
+    /**
+     * Estimated size of all loaded networks.
+     */
+    public long getEstimatedBytes() {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            Network network = loaded(entry);
+            if (network != null) {
+                total += network.getEstimatedBytes();
+            }
+        }
+        return total;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private void add(Entry entry) {
+        if (entries.putIfAbsent(entry.id, entry) != null) {
+            throw new IllegalArgumentException("Network already registered: " + entry.id);
+        }
+    }
+
+    private Network load(Entry entry) throws IOException {
+        Graph graph = entry.file == null
+                ? DataLoader.loadBundled(this::intern)
+                : DataLoader.loadValidated(entry.file, this::intern);
+        Network network = new Network(entry.id, graph, routeFinders.get(), new RouteCache(routeCacheWeight));
+
+        Duration quietPeriod = watchQuietPeriod;
+        if (entry.file != null && quietPeriod != null) {
+            NetworkWatcher watcher = new NetworkWatcher(network.graphStore, entry.file, quietPeriod);
+            watcher.addListener(new NetworkWatcher.Listener() {
+                @Override
+                public void prepare(Graph graph) {
+                    network.routeFinder.prepare(graph);
+                    network.stationIndex = StationIndex.of(graph);
+                }
+
+                @Override
+                public void reloaded(Path file, Graph graph, long nanos) {
+                    network.graphBytes = estimateBytes(graph);
+                    network.stationIdLimit = graph.getStationIdLimit();
+                }
+            });
+            for (NetworkWatcher.Listener listener : watchListeners) {
+                watcher.addListener(listener);
+            }
+            watcher.start();
+            network.watcher = watcher;
+        }
+        return network;
+    }
+
+    /**
+     * Checks the budget again if {@code network} has grown by a budget step since its last check.
+     */
+    private void checkBudget(Entry entry, Network network) {
+        long bytes = network.getEstimatedBytes();
+        if (bytes < network.checkedBytes) {
+            // Its caches were invalidated; measure growth from here.
+            network.checkedBytes = bytes;
+        } else if (bytes - network.checkedBytes > memoryBudget / BUDGET_CHECK_STEPS) {
+            evictOverBudget(entry);
+        }
+    }
+
+    private synchronized void evictOverBudget(Entry keep) {
+        while (true) {
+            long total = 0;
+            Entry oldest = null;
+            for (Entry entry : entries.values()) {
+                Network network = loaded(entry);
+                if (network == null) {
+                    continue;
+                }
+                long bytes = network.getEstimatedBytes();
+                network.checkedBytes = bytes;
+                total += bytes;
+                if (entry != keep && (oldest == null || entry.lastUsed < oldest.lastUsed)) {
+                    oldest = entry;
+                }
+            }
+            if (total <= memoryBudget || oldest == null) {
+                return;
+            }
+            evict(oldest);
+        }
+    }
+
+    private void evict(Entry entry) {
+        Network network = loaded(entry);
+        synchronized (entry) {
+            entry.network = null;
+        }
+        evictions.increment();
+        NetworkWatcher watcher = network == null ? null : network.watcher;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static Network loaded(Entry entry) {
+        CompletableFuture<Network> future;
+        synchronized (entry) {
+            future = entry.network;
+        }
+        return future != null && future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+    }
+
+    /**
+     * One shared instance per distinct string; entries disappear once no loaded network uses them.
+     */
+    private String intern(String value) {
+        synchronized (strings) {
+            WeakReference<String> reference = strings.get(value);
+            String shared = reference == null ? null : reference.get();
+            if (shared == null) {
+                strings.put(value, new WeakReference<>(value));
+                shared = value;
+            }
+            return shared;
+        }
+    }
+
+    private static long estimateBytes(Graph graph) {
+        long edges = 0;
+        for (Graph.Station station : graph.getAllStations().values()) {
+            edges += station.getConnections().size();
+        }
+        return graph.getStationCount() * STATION_BYTES + edges * EDGE_BYTES;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.viennaubahnroutefinder.data;
+
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.GraphStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reloads an external network CSV into a {@link GraphStore} whenever the file changes.
+ *
+ * <p>The file's directory is watched with a {@link WatchService} on a daemon thread. Editors and copy tools
+ * often write a file in several steps, so a reload only starts once no event has arrived for the quiet
+ * period. The reload then runs on the watcher thread:</p>
+ * <ol>
+ *   <li>the file is parsed and checked with {@link DataLoader#loadValidated};</li>
+ *   <li>the listeners build their derived indexes from the frozen graph;</li>
+ *   <li>the graph is published with a single swap.</li>
+ * </ol>
+ *
+ * <p>Queries that are already running finish on the snapshot they acquired. If any step fails, the current
+ * graph stays in place and the failure is handed to the listeners. The watcher prints nothing itself;
+ * reporting reloads is up to the listeners.</p>
+ *
+ * <pre>
+ * NetworkWatcher watcher = new NetworkWatcher(store, Path.of("network.csv"), Duration.ofMillis(500));
+ * watcher.addListener(new NetworkWatcher.Listener() {
+ *     public void prepare(Graph graph) { routeFinder.prepare(graph); }
+ * });
+ * watcher.start();
+ * </pre>
+ */
+public class NetworkWatcher implements Closeable {
+
+    /**
+     * Callbacks of a reload. All of them run on the watcher thread.
+     */
+    public interface Listener {
+
+        /**
+         * Builds derived data from the new graph, which is frozen and versioned but not yet visible to
+         * queries. Throwing cancels the reload.
+         */
+        default void prepare(Graph graph) {
+        }
+
+        /**
+         * The new graph has been published; {@code nanos} covers parsing, validation and preparation.
+         */
+        default void reloaded(Path file, Graph graph, long nanos) {
+        }
+
+        default void failed(Path file, Exception e) {
+        }
+    }
+
+    private final GraphStore store;
+    private final Path file;
+    private final long quietPeriodMillis;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile long lastReloadNanos;
+    private WatchService watchService;
+    private Thread thread;
+
+    public NetworkWatcher(GraphStore store, Path file, Duration quietPeriod) {
+        this.store = store;
+        this.file = file.toAbsolutePath().normalize();
+        this.quietPeriodMillis = quietPeriod.toMillis();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * Duration of the last successful reload, or 0 if there has been none.
+     */
+    public long getLastReloadNanos() {
+        return lastReloadNanos;
+    }
+
+    /**
+     * Starts watching. Changes made before this call are not picked up.
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        // Watch the directory: saving via a temporary file replaces the file rather than modifying it.
+        file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::watch, "network-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Loads, prepares and publishes the file now, on the calling thread.
+     *
+     * @return the published version
+     */
+    public long reload() throws IOException {
+        long start = System.nanoTime();
+        Graph graph = DataLoader.loadValidated(file);
+        long version = store.publish(graph, published -> {
+            for (Listener listener : listeners) {
+                listener.prepare(published);
+            }
+        });
+        long nanos = System.nanoTime() - start;
+        lastReloadNanos = nanos;
+        reloads.increment();
+        for (Listener listener : listeners) {
+            listener.reloaded(file, graph, nanos);
+        }
+        return version;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (!drain(watchService.take())) {
+                    continue;
+                }
+                WatchKey key;
+                while ((key = watchService.poll(quietPeriodMillis, TimeUnit.MILLISECONDS)) != null) {
+                    drain(key);
+                }
+                reloadAndReport();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed.
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reloadAndReport() {
+        try {
+            reload();
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            for (Listener listener : listeners) {
+                listener.failed(file, e);
+            }
+        }
+    }
+}
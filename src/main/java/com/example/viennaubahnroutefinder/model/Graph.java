@@ -5,22 +5,40 @@ import java.util.*;
 public class Graph {
 
     public static class Station {
+        private int id;
         private String name;
         private Map<Station, Edge> connections;
         private double latitude;
         private double longitude;
 
         public Station(String name) {
+            this(-1, name);
+        }
+
+        public Station(String name, double latitude, double longitude) {
+            this(-1, name, latitude, longitude);
+        }
+
+        public Station(int id, String name) {
+            this.id = id;
             this.name = name;
             this.connections = new HashMap<>();
         }
 
-        public Station(String name, double latitude, double longitude) {
-            this(name);
+        public Station(int id, String name, double latitude, double longitude) {
+            this(id, name);
             this.latitude = latitude;
             this.longitude = longitude;
         }
 
+        /**
+         * Dense index assigned by the owning {@link Graph}, usable as an array slot.
+         * Stations created outside a graph have id -1.
+         */
+        public int getId() {
+            return id;
+        }
+
         public String getName() {
             return name;
         }
@@ -30,7 +48,15 @@ public class Graph {
         }
 
         public void addConnection(Station destination, int line, String color, double distance) {
-            connections.put(destination, new Edge(this, destination, line, color, distance));
+            addConnection(destination, line, color, distance, -1);
+        }
+
+        public void addConnection(Station destination, int line, String color, double distance, int connectionId) {
+            connections.put(destination, new Edge(connectionId, this, destination, line, color, distance));
+        }
+
+        public void removeConnection(Station destination) {
+            connections.remove(destination);
         }
 
         public double getLatitude() {
@@ -61,6 +87,7 @@ public class Graph {
     }
 
     public static class Edge {
+        private int id;
         private Station source;
         private Station destination;
         private int line;
@@ -68,6 +95,11 @@ public class Graph {
         private double distance;
 
         public Edge(Station source, Station destination, int line, String color, double distance) {
+            this(-1, source, destination, line, color, distance);
+        }
+
+        public Edge(int id, Station source, Station destination, int line, String color, double distance) {
+            this.id = id;
             this.source = source;
             this.destination = destination;
             this.line = line;
@@ -75,6 +107,14 @@ public class Graph {
             this.distance = distance;
         }
 
+        /**
+         * Id of the connection this edge belongs to; both directions of a connection share it.
+         * Edges created outside a graph have id -1.
+         */
+        public int getId() {
+            return id;
+        }
+
         public Station getSource() {
             return source;
         }
@@ -97,17 +137,87 @@ public class Graph {
     }
 
     private Map<String, Station> stations;
+    private List<Station> stationsById;
+    private int nextStationId;
+    private int nextConnectionId;
+    private long version;
+    private boolean frozen;
 
     public Graph() {
         this.stations = new HashMap<>();
+        this.stationsById = new ArrayList<>();
+    }
+
+    /**
+     * Deep copy that keeps station ids and the version of {@code other}; the copy is always mutable.
+     */
+    public Graph(Graph other) {
+        this.stations = new HashMap<>();
+        this.stationsById = new ArrayList<>(Collections.nCopies(other.nextStationId, (Station) null));
+        this.nextStationId = other.nextStationId;
+        this.nextConnectionId = other.nextConnectionId;
+        this.version = other.version;
+
+        for (Station station : other.stations.values()) {
+            Station copy = new Station(station.getId(), station.getName(),
+                    station.getLatitude(), station.getLongitude());
+            stations.put(copy.getName(), copy);
+            stationsById.set(copy.getId(), copy);
+        }
+        for (Station station : other.stations.values()) {
+            Station copy = stations.get(station.getName());
+            for (Edge edge : station.getConnections().values()) {
+                copy.addConnection(stations.get(edge.getDestination().getName()),
+                        edge.getLine(), edge.getColor(), edge.getDistance(), edge.getId());
+            }
+        }
+    }
+
+    /**
+     * Makes this graph read-only: station and connection maps become unmodifiable and the mutators throw.
+     * Frozen graphs are what {@link GraphStore} hands out to queries.
+     */
+    public void freeze() {
+        if (frozen) {
+            return;
+        }
+        for (Station station : stations.values()) {
+            station.connections = Collections.unmodifiableMap(station.connections);
+        }
+        stations = Collections.unmodifiableMap(stations);
+        stationsById = Collections.unmodifiableList(stationsById);
+        frozen = true;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Version number assigned by the {@link GraphStore} that published this graph, 0 if never published.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
     }
 
     public void addStation(String name) {
-        stations.putIfAbsent(name, new Station(name));
+        if (!stations.containsKey(name)) {
+            Station station = new Station(nextStationId++, name);
+            stations.put(name, station);
+            stationsById.add(station);
+        }
     }
 
     public void addStation(String name, double latitude, double longitude) {
-        stations.putIfAbsent(name, new Station(name, latitude, longitude));
+        if (!stations.containsKey(name)) {
+            Station station = new Station(nextStationId++, name, latitude, longitude);
+            stations.put(name, station);
+            stationsById.add(station);
+        }
     }
 
     public void addConnection(String from, String to, int line, String color) {
@@ -116,8 +226,49 @@ public class Graph {
 
         if (fromStation != null && toStation != null) {
             double distance = calculateDistance(fromStation, toStation);
-            fromStation.addConnection(toStation, line, color, distance);
-            toStation.addConnection(fromStation, line, color, distance);
+            Edge existing = fromStation.getConnections().get(toStation);
+            int connectionId = existing != null ? existing.getId() : nextConnectionId++;
+            fromStation.addConnection(toStation, line, color, distance, connectionId);
+            toStation.addConnection(fromStation, line, color, distance, connectionId);
+        }
+    }
+
+    /**
+     * Closes a station: removes it together with every connection that touches it.
+     */
+    public void removeStation(String name) {
+        Station station = stations.remove(name);
+        if (station != null) {
+            stationsById.set(station.getId(), null);
+            for (Station neighbor : station.getConnections().keySet()) {
+                neighbor.removeConnection(station);
+            }
+        }
+    }
+
+    public void removeConnection(String from, String to) {
+        Station fromStation = stations.get(from);
+        Station toStation = stations.get(to);
+
+        if (fromStation != null && toStation != null) {
+            fromStation.removeConnection(toStation);
+            toStation.removeConnection(fromStation);
+        }
+    }
+
+    /**
+     * Changes the distance of an existing connection in both directions, keeping its line and colour.
+     */
+    public void setConnectionDistance(String from, String to, double distance) {
+        Station fromStation = stations.get(from);
+        Station toStation = stations.get(to);
+
+        if (fromStation != null && toStation != null) {
+            Edge edge = fromStation.getConnections().get(toStation);
+            if (edge != null) {
+                fromStation.addConnection(toStation, edge.getLine(), edge.getColor(), distance, edge.getId());
+                toStation.addConnection(fromStation, edge.getLine(), edge.getColor(), distance, edge.getId());
+            }
         }
     }
 
@@ -129,6 +280,13 @@ public class Graph {
         return stations.get(name);
     }
 
+    /**
+     * Returns the station with the given id, or null if the id was never assigned or the station was removed.
+     */
+    public Station getStationById(int id) {
+        return id >= 0 && id < stationsById.size() ? stationsById.get(id) : null;
+    }
+
     public Map<String, Station> getAllStations() {
         return stations;
     }
@@ -136,4 +294,18 @@ public class Graph {
     public int getStationCount() {
         return stations.size();
     }
+
+    /**
+     * Upper bound (exclusive) of the station ids handed out so far, for sizing id-indexed arrays.
+     */
+    public int getStationIdLimit() {
+        return nextStationId;
+    }
+
+    /**
+     * Upper bound (exclusive) of the connection ids handed out so far, see {@link Edge#getId()}.
+     */
+    public int getConnectionIdLimit() {
+        return nextConnectionId;
+    }
 }
\ No newline at end of file
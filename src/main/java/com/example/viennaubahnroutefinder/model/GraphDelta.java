@@ -0,0 +1,68 @@
+package com.example.viennaubahnroutefinder.model;
+
+import java.util.*;
+
+/**
+ * A batch of small network changes (closures, re-openings, distance changes) that can be applied to a
+ * {@link Graph} copy, typically through {@link GraphStore#update}. The delta also remembers which
+ * station pairs it touched so derived structures can be repaired instead of rebuilt.
+ */
+public class GraphDelta {
+
+    private interface Change {
+        void applyTo(Graph graph);
+    }
+
+    private final List<Change> changes = new ArrayList<>();
+    private final Set<List<String>> touchedConnections = new LinkedHashSet<>();
+    private final Set<String> closedStations = new LinkedHashSet<>();
+
+    public GraphDelta setDistance(String from, String to, double distance) {
+        changes.add(graph -> graph.setConnectionDistance(from, to, distance));
+        touchedConnections.add(List.of(from, to));
+        return this;
+    }
+
+    public GraphDelta closeConnection(String from, String to) {
+        changes.add(graph -> graph.removeConnection(from, to));
+        touchedConnections.add(List.of(from, to));
+        return this;
+    }
+
+    public GraphDelta openConnection(String from, String to, int line, String color) {
+        changes.add(graph -> {
+            graph.addStation(from);
+            graph.addStation(to);
+            graph.addConnection(from, to, line, color);
+        });
+        touchedConnections.add(List.of(from, to));
+        return this;
+    }
+
+    public GraphDelta closeStation(String name) {
+        changes.add(graph -> graph.removeStation(name));
+        closedStations.add(name);
+        return this;
+    }
+
+    public void applyTo(Graph graph) {
+        for (Change change : changes) {
+            change.applyTo(graph);
+        }
+    }
+
+    /**
+     * Station pairs whose connection was opened, closed or re-weighted, as {@code [from, to]} lists.
+     */
+    public Set<List<String>> getTouchedConnections() {
+        return Collections.unmodifiableSet(touchedConnections);
+    }
+
+    public Set<String> getClosedStations() {
+        return Collections.unmodifiableSet(closedStations);
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+}
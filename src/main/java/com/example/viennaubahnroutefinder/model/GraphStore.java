@@ -0,0 +1,221 @@
+package com.example.viennaubahnroutefinder.model;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Publishes immutable, versioned {@link Graph} snapshots so the network can change while queries run.
+ *
+ * <p>Queries {@link #acquire()} the current snapshot and close it when done; they keep seeing that
+ * version no matter what is published meanwhile. Updates copy the current graph, apply the change to
+ * the copy, freeze it and swap it in with a single compare-and-set. A replaced snapshot is retired
+ * once its last query has closed it, at which point the retire listeners run (e.g. to free an arena
+ * holding an {@link OffHeapGraph} built from it).</p>
+ *
+ * <pre>
+ * try (GraphStore.Snapshot snapshot = store.acquire()) {
+ *     routeFinder.findShortestRouteBFS(snapshot.getGraph(), ...);
+ * }
+ * store.update(new GraphDelta().closeStation("Schwedenplatz"));
+ * </pre>
+ *
+ * <p>Changes described by a {@link GraphDelta} are also handed to the delta listeners before the new
+ * version becomes visible, so derived structures can be repaired rather than rebuilt.</p>
+ */
+public class GraphStore {
+
+    /**
+     * Told about every {@link #update(GraphDelta)} while the update lock is held, after {@code updated} has
+     * been frozen and versioned and before queries can see it. Throwing cancels the update.
+     */
+    public interface DeltaListener {
+        void applied(Graph previous, Graph updated, GraphDelta delta);
+    }
+
+    /**
+     * One query's pin on a published graph. Each {@link #acquire()} returns its own handle; closing it
+     * releases the pin once, however often it is closed.
+     */
+    public final class Snapshot implements AutoCloseable {
+        private final Published published;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Snapshot(Published published) {
+            this.published = published;
+        }
+
+        public Graph getGraph() {
+            return published.graph;
+        }
+
+        public long getVersion() {
+            return published.graph.getVersion();
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                published.release();
+            }
+        }
+    }
+
+    private final class Published {
+        private final Graph graph;
+        // One reference belongs to the store while the graph is current, the rest to open snapshots.
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Published(Graph graph) {
+            this.graph = graph;
+        }
+
+        private boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                for (Consumer<Graph> listener : retireListeners) {
+                    listener.accept(graph);
+                }
+            }
+        }
+    }
+
+    private final AtomicReference<Published> current;
+    private final List<Consumer<Graph>> retireListeners = new CopyOnWriteArrayList<>();
+    private final List<DeltaListener> deltaListeners = new CopyOnWriteArrayList<>();
+    private final Object updateLock = new Object();
+
+    public GraphStore(Graph initial) {
+        this.current = new AtomicReference<>(new Published(prepare(initial, 1)));
+    }
+
+    /**
+     * Pins the current graph and returns a handle of its own. The caller must close it once the query is
+     * finished.
+     */
+    public Snapshot acquire() {
+        while (true) {
+            Published published = current.get();
+            if (published.retain()) {
+                return new Snapshot(published);
+            }
+        }
+    }
+
+    public long getVersion() {
+        return current.get().graph.getVersion();
+    }
+
+    /**
+     * Builds the next version by applying {@code change} to a copy of the current graph and publishes it.
+     * Updates are serialised with each other but never block readers.
+     *
+     * @return the version that was published
+     */
+    public long update(Consumer<Graph> change) {
+        synchronized (updateLock) {
+            Published base = current.get();
+            Graph next = new Graph(base.graph);
+            change.accept(next);
+            prepare(next, base.graph.getVersion() + 1);
+            return swap(base, next);
+        }
+    }
+
+    /**
+     * Replaces the whole graph, e.g. after reloading the network from disk.
+     *
+     * @return the version that was published
+     */
+    public long publish(Graph graph) {
+        return publish(graph, published -> { });
+    }
+
+    /**
+     * Replaces the whole graph, first letting {@code buildIndexes} derive whatever it needs from the frozen,
+     * versioned graph. Queries keep seeing the previous graph until that has finished, and if it throws
+     * nothing is published.
+     *
+     * @return the version that was published
+     */
+    public long publish(Graph graph, Consumer<Graph> buildIndexes) {
+        synchronized (updateLock) {
+            Published base = current.get();
+            prepare(graph, base.graph.getVersion() + 1);
+            buildIndexes.accept(graph);
+            return swap(base, graph);
+        }
+    }
+
+    /**
+     * Builds the next version by applying {@code delta} to a copy of the current graph, lets the delta
+     * listeners catch up with it and publishes it.
+     *
+     * @return the version that was published
+     */
+    public long update(GraphDelta delta) {
+        synchronized (updateLock) {
+            Published base = current.get();
+            Graph next = new Graph(base.graph);
+            delta.applyTo(next);
+            prepare(next, base.graph.getVersion() + 1);
+            for (DeltaListener listener : deltaListeners) {
+                listener.applied(base.graph, next, delta);
+            }
+            return swap(base, next);
+        }
+    }
+
+    public long closeStation(String name) {
+        return update(new GraphDelta().closeStation(name));
+    }
+
+    public long closeConnection(String from, String to) {
+        return update(new GraphDelta().closeConnection(from, to));
+    }
+
+    public long addSegment(String from, String to, int line, String color) {
+        return update(new GraphDelta().openConnection(from, to, line, color));
+    }
+
+    public void addDeltaListener(DeltaListener listener) {
+        deltaListeners.add(listener);
+    }
+
+    /**
+     * Registers a callback invoked with each graph whose snapshot has been replaced and fully released.
+     */
+    public void addRetireListener(Consumer<Graph> listener) {
+        retireListeners.add(listener);
+    }
+
+    private long swap(Published base, Graph next) {
+        if (!current.compareAndSet(base, new Published(next))) {
+            throw new IllegalStateException("Graph snapshot replaced outside the update lock");
+        }
+        base.release();
+        return next.getVersion();
+    }
+
+    private static Graph prepare(Graph graph, long version) {
+        if (graph.isFrozen()) {
+            throw new IllegalArgumentException("Graph is already published");
+        }
+        graph.setVersion(version);
+        graph.freeze();
+        return graph;
+    }
+}
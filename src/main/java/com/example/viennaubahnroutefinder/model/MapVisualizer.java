@@ -1,199 +1,525 @@
 package com.example.viennaubahnroutefinder.model;
 
 import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import javafx.animation.PauseTransition;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseButton;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
 import javafx.scene.text.Font;
+import javafx.util.Duration;
 import java.util.*;
-
-public class MapVisualizer {
+import java.util.function.Consumer;
+
+/**
+ * Draws the network and the selected route on the map canvas, with pan, zoom and click-to-select.
+ *
+ * <p>Stations sit at the positions of a {@link NetworkLayout}, so a route is drawn the same way every
+ * time. The picture is a stack of layers. The base layer (grid, the network connections and stations
+ * in view, and labels by level of detail) and the route layer (line segments and station markers) are
+ * rendered into images. Rendering only covers the stations the layout's spatial index finds in the
+ * viewport. Labels, the legend and the selected/hovered station are drawn on top.</p>
+ *
+ * <p>Dragging shifts the cached images, and the layers are re-rendered for the new viewport when the
+ * drag ends. Zooming scales them the same way, and re-renders once the wheel has been still for
+ * {@link #ZOOM_SETTLE}. Moving the highlight redraws only the area around the old and the new highlighted
+ * station. Hover and click hit-tests go through the spatial index, which only looks at the grid cells
+ * under the cursor.</p>
+ */
+public final class MapVisualizer {
+
+    private static final double HIGHLIGHT_RADIUS = 16;
+    private static final double HIT_RADIUS = 12;
+    private static final double PADDING = 40;
+    private static final int MAX_LABELS = 150;
+    private static final int MAX_STATION_DOTS = 3000;
+    private static final double MAX_ZOOM = 200;
+    private static final Duration ZOOM_SETTLE = Duration.millis(150);
 
     private Canvas canvas;
     private GraphicsContext gc;
-    private Map<String, MapPoint> stationPositions;
-    private Map<String, Set<String>> drawnConnections;
-
-    private static class MapPoint {
-        double x;
-        double y;
 
-        MapPoint(double x, double y) {
-            this.x = x;
-            this.y = y;
-        }
-    }
+    private Graph graph;
+    private NetworkLayout layout;
+    private double scale = 1;
+    private double offsetX;
+    private double offsetY;
+    private double fitScale = 1;
+
+    private WritableImage baseLayer;
+    private WritableImage routeLayer;
+    // View each cached layer was rendered with; a drag moves the offset and a zoom also changes the scale.
+    private double layerOffsetX;
+    private double layerOffsetY;
+    private double layerScale = 1;
+    private final PauseTransition zoomSettle = new PauseTransition(ZOOM_SETTLE);
+
+    private RouteFinder.Route currentRoute;
+    private int selectedStation = -1;
+    private int hoveredStation = -1;
+    private Consumer<String> stationClickListener;
+
+    private double pressX;
+    private double pressY;
+    private boolean dragged;
 
     public MapVisualizer(Canvas canvas) {
         this.canvas = canvas;
         this.gc = canvas.getGraphicsContext2D();
-        this.stationPositions = new HashMap<>();
-        this.drawnConnections = new HashMap<>();
+        zoomSettle.setOnFinished(e -> invalidateLayers());
+
+        canvas.widthProperty().addListener((obs, oldVal, newVal) -> invalidateLayers());
+        canvas.heightProperty().addListener((obs, oldVal, newVal) -> invalidateLayers());
+
+        canvas.setOnMouseMoved(e -> setHoveredStation(stationAt(e.getX(), e.getY())));
+        canvas.setOnMouseExited(e -> setHoveredStation(-1));
+        canvas.setOnMousePressed(e -> {
+            pressX = e.getX();
+            pressY = e.getY();
+            dragged = false;
+        });
+        canvas.setOnMouseDragged(e -> {
+            if (!dragged && Math.hypot(e.getX() - pressX, e.getY() - pressY) < 3) {
+                return;
+            }
+            dragged = true;
+            offsetX += e.getX() - pressX;
+            offsetY += e.getY() - pressY;
+            pressX = e.getX();
+            pressY = e.getY();
+            compose();
+            e.consume();
+        });
+        canvas.setOnMouseReleased(e -> {
+            if (dragged) {
+                invalidateLayers();
+            } else if (e.getButton() == MouseButton.PRIMARY) {
+                int station = stationAt(e.getX(), e.getY());
+                if (station >= 0) {
+                    selectStation(graph.getStationById(station).getName());
+                    if (stationClickListener != null) {
+                        stationClickListener.accept(graph.getStationById(station).getName());
+                    }
+                }
+            }
+        });
+        canvas.setOnScroll(e -> {
+            zoom(Math.pow(1.002, e.getDeltaY()), e.getX(), e.getY());
+            e.consume();
+        });
     }
 
-    public void clearMap() {
-        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        gc.setFill(Color.WHITESMOKE);
-        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+    /**
+     * Shows {@code graph} at the positions of {@code layout}, zoomed to fit. A route drawn on the previous
+     * network is removed.
+     */
+    public void setNetwork(Graph graph, NetworkLayout layout) {
+        this.graph = graph;
+        this.layout = layout;
+        currentRoute = null;
+        routeLayer = null;
+        fitView(layout.getMinX(), layout.getMinY(), layout.getMaxX(), layout.getMaxY());
+        fitScale = scale;
+        selectedStation = -1;
+        hoveredStation = -1;
+        invalidateLayers();
+    }
 
-        gc.setStroke(Color.LIGHTGRAY);
-        gc.setLineWidth(0.5);
-        for (int i = 0; i < canvas.getWidth(); i += 50) {
-            gc.strokeLine(i, 0, i, canvas.getHeight());
-        }
-        for (int i = 0; i < canvas.getHeight(); i += 50) {
-            gc.strokeLine(0, i, canvas.getWidth(), i);
-        }
+    /**
+     * Called with the name of a station clicked on the map.
+     */
+    public void setOnStationClicked(Consumer<String> listener) {
+        this.stationClickListener = listener;
+    }
+
+    public void clearMap() {
+        currentRoute = null;
+        routeLayer = null;
+        selectedStation = -1;
+        compose();
     }
 
     public void drawRoute(RouteFinder.Route route) {
         if (route == null || route.getStations().isEmpty()) {
             return;
         }
+        // A route found before the network was reloaded has no positions in the current layout.
+        Graph.Station first = route.getStations().get(0);
+        if (graph == null || graph.getStationById(first.getId()) != first) {
+            return;
+        }
 
-        clearMap();
-        layoutStations(route);
-
-        List<Graph.Station> stations = route.getStations();
-        List<Graph.Edge> edges = route.getEdges();
+        if (route != currentRoute) {
+            currentRoute = route;
+            selectedStation = -1;
+            fitRoute(route);
+            invalidateLayers();
+        } else {
+            compose();
+        }
+    }
 
-        Map<String, Color> lineColors = new HashMap<>();
-        for (Graph.Edge edge : edges) {
-            lineColors.put(edge.getLine() + "-" + edge.getColor(), getLineColor(edge.getColor()));
+    /**
+     * Marks a station as selected, or clears the selection when {@code name} is null.
+     */
+    public void selectStation(String name) {
+        Graph.Station station = name != null && graph != null ? graph.getStation(name) : null;
+        int id = station != null && layout.contains(station.getId()) ? station.getId() : -1;
+        if (id == selectedStation) {
+            return;
         }
+        int previous = selectedStation;
+        selectedStation = id;
+        redrawAround(previous, id);
+    }
 
-        gc.setLineWidth(6.0);
-        gc.setLineCap(javafx.scene.shape.StrokeLineCap.ROUND);
-        gc.setLineJoin(javafx.scene.shape.StrokeLineJoin.ROUND);
+    /**
+     * Scales the view by {@code factor} around the canvas point ({@code x}, {@code y}). The cached layers
+     * are stretched until the zoom settles, then re-rendered at the new scale.
+     */
+    public void zoom(double factor, double x, double y) {
+        double newScale = Math.max(fitScale / 2, Math.min(fitScale * MAX_ZOOM, scale * factor));
+        offsetX = x - (x - offsetX) * newScale / scale;
+        offsetY = y - (y - offsetY) * newScale / scale;
+        scale = newScale;
+        compose();
+        zoomSettle.playFromStart();
+    }
 
-        for (int i = 0; i < edges.size(); i++) {
-            Graph.Edge edge = edges.get(i);
-            Graph.Station from = stations.get(i);
-            Graph.Station to = stations.get(i + 1);
+    private void setHoveredStation(int id) {
+        if (id == hoveredStation) {
+            return;
+        }
+        int previous = hoveredStation;
+        hoveredStation = id;
+        redrawAround(previous, id);
+    }
 
-            MapPoint fromPoint = stationPositions.get(from.getName());
-            MapPoint toPoint = stationPositions.get(to.getName());
+    private int stationAt(double x, double y) {
+        if (layout == null) {
+            return -1;
+        }
+        return layout.nearest(worldX(x), worldY(y), HIT_RADIUS / scale);
+    }
 
-            if (fromPoint != null && toPoint != null) {
-                gc.setStroke(getLineColor(edge.getColor()));
-                gc.strokeLine(fromPoint.x, fromPoint.y, toPoint.x, toPoint.y);
+    private void fitRoute(RouteFinder.Route route) {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (Graph.Station station : route.getStations()) {
+            if (layout != null && layout.contains(station.getId())) {
+                minX = Math.min(minX, layout.getX(station.getId()));
+                minY = Math.min(minY, layout.getY(station.getId()));
+                maxX = Math.max(maxX, layout.getX(station.getId()));
+                maxY = Math.max(maxY, layout.getY(station.getId()));
             }
         }
+        if (minX > maxX) {
+            return;
+        }
+        // Show at least a fifteenth of the network around short routes, for context.
+        double minimumSpan = Math.max(layout.getMaxX() - layout.getMinX(), layout.getMaxY() - layout.getMinY()) / 15;
+        double growX = Math.max(0, minimumSpan - (maxX - minX)) / 2;
+        double growY = Math.max(0, minimumSpan - (maxY - minY)) / 2;
+        fitView(minX - growX, minY - growY, maxX + growX, maxY + growY);
+    }
 
-        gc.setLineWidth(2.0);
-        gc.setFont(Font.font(11));
+    private void fitView(double minX, double minY, double maxX, double maxY) {
+        double width = canvas.getWidth() - 2 * PADDING;
+        double height = canvas.getHeight() - 2 * PADDING;
+        scale = Math.min(width / Math.max(maxX - minX, 1e-6), height / Math.max(maxY - minY, 1e-6));
+        offsetX = PADDING + (width - (maxX - minX) * scale) / 2 - minX * scale;
+        offsetY = PADDING + (height - (maxY - minY) * scale) / 2 - minY * scale;
+    }
 
-        for (int i = 0; i < stations.size(); i++) {
-            Graph.Station station = stations.get(i);
-            MapPoint point = stationPositions.get(station.getName());
-
-            if (point != null) {
-                if (i == 0) {
-                    gc.setFill(Color.LIGHTGREEN);
-                    gc.fillOval(point.x - 10, point.y - 10, 20, 20);
-                    gc.setStroke(Color.DARKGREEN);
-                    gc.strokeOval(point.x - 10, point.y - 10, 20, 20);
-                    gc.setFill(Color.DARKGREEN);
-                    gc.fillText("START", point.x - 20, point.y - 15);
-                } else if (i == stations.size() - 1) {
-                    gc.setFill(Color.LIGHTCORAL);
-                    gc.fillOval(point.x - 10, point.y - 10, 20, 20);
-                    gc.setStroke(Color.DARKRED);
-                    gc.strokeOval(point.x - 10, point.y - 10, 20, 20);
-                    gc.setFill(Color.DARKRED);
-                    gc.fillText("END", point.x - 15, point.y - 15);
-                } else {
-                    gc.setFill(Color.WHITE);
-                    gc.fillOval(point.x - 8, point.y - 8, 16, 16);
-                    gc.setStroke(Color.BLACK);
-                    gc.strokeOval(point.x - 8, point.y - 8, 16, 16);
-                }
+    private double screenX(int id) {
+        return layout.getX(id) * scale + offsetX;
+    }
 
-                gc.setFill(Color.BLACK);
-                String label = station.getName();
-                if (label.length() > 18) {
-                    label = label.substring(0, 15) + "...";
-                }
+    private double screenY(int id) {
+        return layout.getY(id) * scale + offsetY;
+    }
 
-                double textX = point.x + 12;
-                double textY = point.y + 4;
+    private double worldX(double x) {
+        return (x - offsetX) / scale;
+    }
 
-                gc.setFill(Color.WHITE);
-                gc.fillRect(textX - 2, textY - 12, label.length() * 6.5 + 4, 16);
-                gc.setFill(Color.BLACK);
-                gc.fillText(label, textX, textY);
+    private double worldY(double y) {
+        return (y - offsetY) / scale;
+    }
+
+    /**
+     * Recomposes only the rectangles around two stations' highlights and hover labels.
+     */
+    private void redrawAround(int first, int second) {
+        for (int id : new int[]{first, second}) {
+            if (id < 0 || layout == null || graph.getStationById(id) == null) {
+                continue;
             }
+            double x = screenX(id);
+            double y = screenY(id);
+            double labelWidth = Math.max(18, graph.getStationById(id).getName().length()) * 6.5 + 20;
+            gc.save();
+            gc.beginPath();
+            gc.rect(x - HIGHLIGHT_RADIUS - 2, y - HIGHLIGHT_RADIUS - 22,
+                    2 * HIGHLIGHT_RADIUS + 4 + labelWidth, 2 * HIGHLIGHT_RADIUS + 26);
+            gc.clip();
+            compose();
+            gc.restore();
         }
+    }
 
-        drawLegend(lineColors);
-        drawRouteInfo(route);
+    private void invalidateLayers() {
+        zoomSettle.stop();
+        baseLayer = null;
+        routeLayer = null;
+        compose();
     }
 
-    private void layoutStations(RouteFinder.Route route) {
-        stationPositions.clear();
+    /**
+     * Blits the cached layers, rendering those that are missing, and draws the overlays on top.
+     */
+    private void compose() {
+        if (baseLayer == null) {
+            layerOffsetX = offsetX;
+            layerOffsetY = offsetY;
+            layerScale = scale;
+            routeLayer = null;
+            baseLayer = renderLayer(this::drawBase);
+        }
+        // Maps the layers' view onto the current one: a layer pixel p lands at p * stretch + shift.
+        double stretch = scale / layerScale;
+        double shiftX = offsetX - layerOffsetX * stretch;
+        double shiftY = offsetY - layerOffsetY * stretch;
+        double layerWidth = baseLayer.getWidth() * stretch;
+        double layerHeight = baseLayer.getHeight() * stretch;
+        if (shiftX != 0 || shiftY != 0 || stretch != 1) {
+            gc.setFill(Color.WHITESMOKE);
+            gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        }
+        gc.drawImage(baseLayer, shiftX, shiftY, layerWidth, layerHeight);
 
-        List<Graph.Station> stations = route.getStations();
-        if (stations.isEmpty()) return;
+        if (currentRoute != null && layout != null) {
+            if (routeLayer == null) {
+                RouteFinder.Route route = currentRoute;
+                routeLayer = renderLayer(layer -> drawRouteLines(layer, route));
+            }
+            gc.drawImage(routeLayer, shiftX, shiftY, layerWidth, layerHeight);
+        }
 
-        double centerX = canvas.getWidth() / 2;
-        double centerY = canvas.getHeight() / 2;
-        double radius = Math.min(canvas.getWidth(), canvas.getHeight()) * 0.3;
+        drawHighlight(hoveredStation, Color.rgb(30, 144, 255, 0.35));
+        drawHighlight(selectedStation, Color.rgb(255, 215, 0, 0.6));
+        if (currentRoute != null && layout != null) {
+            drawLabels(currentRoute);
+            drawLegend(currentRoute);
+            drawRouteInfo(currentRoute);
+        }
+        drawHoverLabel();
+    }
 
-        if (stations.size() == 1) {
-            stationPositions.put(stations.get(0).getName(), new MapPoint(centerX, centerY));
-            return;
+    private WritableImage renderLayer(Consumer<GraphicsContext> painter) {
+        Canvas layer = new Canvas(canvas.getWidth(), canvas.getHeight());
+        painter.accept(layer.getGraphicsContext2D());
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        return layer.snapshot(parameters, null);
+    }
+
+    private void drawBase(GraphicsContext layer) {
+        layer.setFill(Color.WHITESMOKE);
+        layer.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+        layer.setStroke(Color.LIGHTGRAY);
+        layer.setLineWidth(0.5);
+        for (int i = 0; i < canvas.getWidth(); i += 50) {
+            layer.strokeLine(i, 0, i, canvas.getHeight());
+        }
+        for (int i = 0; i < canvas.getHeight(); i += 50) {
+            layer.strokeLine(0, i, canvas.getWidth(), i);
         }
 
-        if (stations.size() == 2) {
-            stationPositions.put(stations.get(0).getName(), new MapPoint(centerX - 100, centerY));
-            stationPositions.put(stations.get(1).getName(), new MapPoint(centerX + 100, centerY));
+        if (layout == null) {
             return;
         }
 
-        Map<Integer, List<Integer>> lineSegments = new HashMap<>();
-        for (int i = 0; i < route.getEdges().size(); i++) {
-            int line = route.getEdges().get(i).getLine();
-            lineSegments.computeIfAbsent(line, k -> new ArrayList<>()).add(i);
+        // Every connection crossing the viewport has both ends within one segment length of it.
+        double margin = layout.getMaxSegmentLength();
+        double left = worldX(0);
+        double top = worldY(0);
+        double right = worldX(canvas.getWidth());
+        double bottom = worldY(canvas.getHeight());
+        int[] nearby = collect(left - margin, top - margin, right + margin, bottom + margin);
+
+        layer.setLineWidth(1.5);
+        for (int id : nearby) {
+            for (Graph.Edge edge : graph.getStationById(id).getConnections().values()) {
+                int other = edge.getDestination().getId();
+                if (id < other && layout.contains(other)) {
+                    layer.setStroke(getLineColor(edge.getColor()).deriveColor(0, 0.35, 1.2, 0.5));
+                    layer.strokeLine(screenX(id), screenY(id), screenX(other), screenY(other));
+                }
+            }
+        }
+
+        int[] visible = collect(left, top, right, bottom);
+        if (visible.length <= MAX_STATION_DOTS) {
+            layer.setLineWidth(1.0);
+            layer.setFill(Color.WHITE);
+            layer.setStroke(Color.GRAY);
+            for (int id : visible) {
+                double radius = layout.isInterchange(id) ? 4 : 2.5;
+                layer.fillOval(screenX(id) - radius, screenY(id) - radius, 2 * radius, 2 * radius);
+                layer.strokeOval(screenX(id) - radius, screenY(id) - radius, 2 * radius, 2 * radius);
+            }
+        }
+
+        // Level of detail: label everything when few stations are in view, then only interchanges.
+        boolean interchangesOnly = visible.length > MAX_LABELS;
+        int labels = 0;
+        for (int id : visible) {
+            if (!interchangesOnly || layout.isInterchange(id)) {
+                labels++;
+            }
         }
+        if (labels <= MAX_LABELS) {
+            layer.setFont(Font.font(10));
+            layer.setFill(Color.DIMGRAY);
+            for (int id : visible) {
+                if (!interchangesOnly || layout.isInterchange(id)) {
+                    layer.fillText(graph.getStationById(id).getName(), screenX(id) + 6, screenY(id) - 6);
+                }
+            }
+        }
+    }
 
-        double currentX = 100;
-        double currentY = centerY;
-        double segmentLength = 80;
+    private int[] collect(double left, double top, double right, double bottom) {
+        int[][] ids = {new int[64]};
+        int[] count = {0};
+        layout.forEachInRect(left, top, right, bottom, id -> {
+            if (count[0] == ids[0].length) {
+                ids[0] = Arrays.copyOf(ids[0], count[0] * 2);
+            }
+            ids[0][count[0]++] = id;
+        });
+        return Arrays.copyOf(ids[0], count[0]);
+    }
 
-        stationPositions.put(stations.get(0).getName(), new MapPoint(currentX, currentY));
+    private void drawRouteLines(GraphicsContext layer, RouteFinder.Route route) {
+        List<Graph.Station> stations = route.getStations();
+        List<Graph.Edge> edges = route.getEdges();
 
-        for (int i = 0; i < route.getEdges().size(); i++) {
-            Graph.Edge edge = route.getEdges().get(i);
+        layer.setLineWidth(6.0);
+        layer.setLineCap(StrokeLineCap.ROUND);
+        layer.setLineJoin(StrokeLineJoin.ROUND);
 
-            double angle = 0;
-            boolean isLineChange = false;
+        for (int i = 0; i < edges.size(); i++) {
+            Graph.Edge edge = edges.get(i);
+            int from = stations.get(i).getId();
+            int to = stations.get(i + 1).getId();
 
-            if (i > 0 && edge.getLine() != route.getEdges().get(i - 1).getLine()) {
-                isLineChange = true;
-                angle = (edge.getLine() * 45) % 360;
-            } else if (i % 3 == 0 && i > 0) {
-                angle = ((i / 3) * 30) % 360;
+            if (layout.contains(from) && layout.contains(to)) {
+                layer.setStroke(getLineColor(edge.getColor()));
+                layer.strokeLine(screenX(from), screenY(from), screenX(to), screenY(to));
             }
+        }
 
-            if (isLineChange) {
-                angle = Math.toRadians(angle);
-                currentX += segmentLength * Math.cos(angle);
-                currentY += segmentLength * Math.sin(angle) * 0.5;
+        layer.setLineWidth(2.0);
+
+        for (int i = 0; i < stations.size(); i++) {
+            int id = stations.get(i).getId();
+            if (!layout.contains(id)) {
+                continue;
+            }
+            double x = screenX(id);
+            double y = screenY(id);
+            if (i == 0) {
+                layer.setFill(Color.LIGHTGREEN);
+                layer.fillOval(x - 10, y - 10, 20, 20);
+                layer.setStroke(Color.DARKGREEN);
+                layer.strokeOval(x - 10, y - 10, 20, 20);
+            } else if (i == stations.size() - 1) {
+                layer.setFill(Color.LIGHTCORAL);
+                layer.fillOval(x - 10, y - 10, 20, 20);
+                layer.setStroke(Color.DARKRED);
+                layer.strokeOval(x - 10, y - 10, 20, 20);
             } else {
-                currentX += segmentLength;
-                if (i % 5 == 0) {
-                    currentY += (Math.random() - 0.5) * 40;
-                }
+                layer.setFill(Color.WHITE);
+                layer.fillOval(x - 8, y - 8, 16, 16);
+                layer.setStroke(Color.BLACK);
+                layer.strokeOval(x - 8, y - 8, 16, 16);
             }
+        }
+    }
+
+    private void drawHighlight(int id, Color color) {
+        if (id < 0 || layout == null) {
+            return;
+        }
+        double x = screenX(id);
+        double y = screenY(id);
+        gc.setStroke(color);
+        gc.setLineWidth(4.0);
+        gc.strokeOval(x - HIGHLIGHT_RADIUS + 2, y - HIGHLIGHT_RADIUS + 2,
+                2 * HIGHLIGHT_RADIUS - 4, 2 * HIGHLIGHT_RADIUS - 4);
+    }
+
+    private void drawHoverLabel() {
+        if (hoveredStation < 0 || graph.getStationById(hoveredStation) == null) {
+            return;
+        }
+        drawLabel(graph.getStationById(hoveredStation).getName(), screenX(hoveredStation), screenY(hoveredStation));
+    }
+
+    private void drawLabels(RouteFinder.Route route) {
+        List<Graph.Station> stations = route.getStations();
+        gc.setFont(Font.font(11));
 
-            currentX = Math.max(50, Math.min(canvas.getWidth() - 150, currentX));
-            currentY = Math.max(100, Math.min(canvas.getHeight() - 100, currentY));
+        for (int i = 0; i < stations.size(); i++) {
+            Graph.Station station = stations.get(i);
+            if (!layout.contains(station.getId())) {
+                continue;
+            }
+            double x = screenX(station.getId());
+            double y = screenY(station.getId());
+
+            if (i == 0) {
+                gc.setFill(Color.DARKGREEN);
+                gc.fillText("START", x - 20, y - 15);
+            } else if (i == stations.size() - 1) {
+                gc.setFill(Color.DARKRED);
+                gc.fillText("END", x - 15, y - 15);
+            }
 
-            stationPositions.put(stations.get(i + 1).getName(), new MapPoint(currentX, currentY));
+            String label = station.getName();
+            if (label.length() > 18) {
+                label = label.substring(0, 15) + "...";
+            }
+            drawLabel(label, x, y);
         }
     }
 
-    private void drawLegend(Map<String, Color> lineColors) {
+    private void drawLabel(String label, double x, double y) {
+        double textX = x + 12;
+        double textY = y + 4;
+
+        gc.setFont(Font.font(11));
+        gc.setFill(Color.WHITE);
+        gc.fillRect(textX - 2, textY - 12, label.length() * 6.5 + 4, 16);
+        gc.setFill(Color.BLACK);
+        gc.fillText(label, textX, textY);
+    }
+
+    private void drawLegend(RouteFinder.Route route) {
+        Map<String, Color> lineColors = new LinkedHashMap<>();
+        for (Graph.Edge edge : route.getEdges()) {
+            lineColors.put(edge.getLine() + "-" + edge.getColor(), getLineColor(edge.getColor()));
+        }
+
         gc.setFont(Font.font(12));
         gc.setFill(Color.BLACK);
         gc.fillText("Lines on this route:", 10, 20);
@@ -237,4 +563,4 @@ public class MapVisualizer {
             default: return Color.GRAY;
         }
     }
-}
\ No newline at end of file
+}
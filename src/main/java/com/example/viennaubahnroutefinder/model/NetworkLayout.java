@@ -0,0 +1,555 @@
+package com.example.viennaubahnroutefinder.model;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Fixed map positions for every station of a graph, plus a uniform-grid spatial index over them.
+ *
+ * <p>When every station has coordinates the layout is their equirectangular projection. Otherwise it is a
+ * force-directed layout: springs along the connections, repulsion between stations in neighbouring grid
+ * cells only, and a cooling step size. It starts from hop distances to landmark stations plus a
+ * jitter from a fixed seed. Each iteration computes all displacements in parallel from the previous
+ * positions, so a graph always gets the same layout.</p>
+ *
+ * <p>Positions are in world units. The layout spans about 1000 units on its longer side. The grid aims
+ * at a few stations per cell, so {@link #nearest} and {@link #forEachInRect} only look at the cells that
+ * overlap the query. {@link #loadOrCompute} keeps layouts on disk, keyed by a fingerprint of the
+ * station names and connections.</p>
+ */
+public class NetworkLayout {
+
+    private static final int MAGIC = 0x55424C59; // "UBLY"
+    private static final int FORMAT = 1;
+    private static final double EXTENT = 1000;
+    private static final long SEED = 0x5EED;
+
+    private final long fingerprint;
+    private final float[] x;
+    private final float[] y;
+    private final boolean[] interchange;
+    private final double maxSegmentLength;
+
+    private double minX;
+    private double minY;
+    private double maxX;
+    private double maxY;
+    private double cellSize;
+    private int columns;
+    private int rows;
+    private int[] cellStart;
+    private int[] cellStations;
+
+    private NetworkLayout(Graph graph, long fingerprint, float[] x, float[] y) {
+        this.fingerprint = fingerprint;
+        this.x = x;
+        this.y = y;
+        this.interchange = new boolean[x.length];
+
+        double longest = 0;
+        for (int id = 0; id < x.length; id++) {
+            Graph.Station station = graph.getStationById(id);
+            if (station == null) {
+                continue;
+            }
+            Set<Integer> lines = new HashSet<>();
+            for (Graph.Edge edge : station.getConnections().values()) {
+                lines.add(edge.getLine());
+                int other = edge.getDestination().getId();
+                longest = Math.max(longest, Math.hypot(x[id] - x[other], y[id] - y[other]));
+            }
+            interchange[id] = lines.size() > 1;
+        }
+        this.maxSegmentLength = longest;
+        buildIndex();
+    }
+
+    /**
+     * Computes the layout of {@code graph}.
+     */
+    public static NetworkLayout compute(Graph graph) {
+        int limit = graph.getStationIdLimit();
+        float[] x = new float[limit];
+        float[] y = new float[limit];
+        Arrays.fill(x, Float.NaN);
+        Arrays.fill(y, Float.NaN);
+
+        if (hasCoordinates(graph)) {
+            project(graph, x, y);
+        } else {
+            forceDirected(graph, x, y);
+        }
+        normalize(x, y);
+        return new NetworkLayout(graph, fingerprint(graph), x, y);
+    }
+
+    /**
+     * Returns the layout stored in {@code directory} for this graph, computing and storing it if there is
+     * none. A layout that cannot be stored is still returned.
+     */
+    public static NetworkLayout loadOrCompute(Graph graph, Path directory) {
+        long fingerprint = fingerprint(graph);
+        Path file = directory.resolve(String.format("layout-%016x.bin", fingerprint));
+        if (Files.isRegularFile(file)) {
+            try {
+                NetworkLayout layout = read(graph, fingerprint, file);
+                if (layout != null) {
+                    return layout;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        NetworkLayout layout = compute(graph);
+        try {
+            Files.createDirectories(directory);
+            layout.writeTo(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return layout;
+    }
+
+    /**
+     * Writes the positions, replacing {@code file} atomically.
+     */
+    public void writeTo(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(fingerprint);
+            out.writeInt(x.length);
+            for (int id = 0; id < x.length; id++) {
+                out.writeFloat(x[id]);
+                out.writeFloat(y[id]);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static NetworkLayout read(Graph graph, long fingerprint, Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || in.readLong() != fingerprint) {
+                return null;
+            }
+            int limit = in.readInt();
+            if (limit != graph.getStationIdLimit()) {
+                return null;
+            }
+            float[] x = new float[limit];
+            float[] y = new float[limit];
+            for (int id = 0; id < limit; id++) {
+                x[id] = in.readFloat();
+                y[id] = in.readFloat();
+            }
+            return new NetworkLayout(graph, fingerprint, x, y);
+        }
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < x.length && !Float.isNaN(x[id]);
+    }
+
+    public double getX(int id) {
+        return x[id];
+    }
+
+    public double getY(int id) {
+        return y[id];
+    }
+
+    /**
+     * Whether more than one line stops at the station; interchanges are labelled first when zoomed out.
+     */
+    public boolean isInterchange(int id) {
+        return interchange[id];
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Longest connection in world units. Widening a view by this much finds every connection crossing it.
+     */
+    public double getMaxSegmentLength() {
+        return maxSegmentLength;
+    }
+
+    /**
+     * Calls {@code action} with the id of every station inside the rectangle.
+     */
+    public void forEachInRect(double left, double top, double right, double bottom, IntConsumer action) {
+        int fromColumn = column(left);
+        int toColumn = column(right);
+        int fromRow = row(top);
+        int toRow = row(bottom);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int cell = row * columns + column;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int id = cellStations[i];
+                    if (x[id] >= left && x[id] <= right && y[id] >= top && y[id] <= bottom) {
+                        action.accept(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Closest station within {@code maxDistance} of the point, or -1.
+     */
+    public int nearest(double px, double py, double maxDistance) {
+        int best = -1;
+        double bestDistance = maxDistance * maxDistance;
+        int fromColumn = column(px - maxDistance);
+        int toColumn = column(px + maxDistance);
+        int fromRow = row(py - maxDistance);
+        int toRow = row(py + maxDistance);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int cell = row * columns + column;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int id = cellStations[i];
+                    double dx = x[id] - px;
+                    double dy = y[id] - py;
+                    double distance = dx * dx + dy * dy;
+                    if (distance <= bestDistance) {
+                        best = id;
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private int column(double worldX) {
+        return (int) Math.max(0, Math.min(columns - 1, Math.floor((worldX - minX) / cellSize)));
+    }
+
+    private int row(double worldY) {
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor((worldY - minY) / cellSize)));
+    }
+
+    private void buildIndex() {
+        minX = Double.MAX_VALUE;
+        minY = Double.MAX_VALUE;
+        maxX = -Double.MAX_VALUE;
+        maxY = -Double.MAX_VALUE;
+        int count = 0;
+        for (int id = 0; id < x.length; id++) {
+            if (contains(id)) {
+                minX = Math.min(minX, x[id]);
+                minY = Math.min(minY, y[id]);
+                maxX = Math.max(maxX, x[id]);
+                maxY = Math.max(maxY, y[id]);
+                count++;
+            }
+        }
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        // About four stations per cell, and never more cells than twice the stations.
+        double area = Math.max(maxX - minX, 1) * Math.max(maxY - minY, 1);
+        cellSize = Math.max(Math.sqrt(4 * area / Math.max(count, 1)), 1e-6);
+        columns = (int) Math.min(4096, Math.floor((maxX - minX) / cellSize) + 1);
+        rows = (int) Math.min(4096, Math.floor((maxY - minY) / cellSize) + 1);
+        cellSize = Math.max(cellSize, Math.max((maxX - minX) / columns, (maxY - minY) / rows) * 1.0001);
+
+        cellStart = new int[columns * rows + 1];
+        for (int id = 0; id < x.length; id++) {
+            if (contains(id)) {
+                cellStart[row(y[id]) * columns + column(x[id]) + 1]++;
+            }
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        cellStations = new int[count];
+        int[] fill = Arrays.copyOf(cellStart, columns * rows);
+        for (int id = 0; id < x.length; id++) {
+            if (contains(id)) {
+                cellStations[fill[row(y[id]) * columns + column(x[id])]++] = id;
+            }
+        }
+    }
+
+    private static boolean hasCoordinates(Graph graph) {
+        if (graph.getStationCount() == 0) {
+            return false;
+        }
+        for (Graph.Station station : graph.getAllStations().values()) {
+            if (station.getLatitude() == 0 && station.getLongitude() == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void project(Graph graph, float[] x, float[] y) {
+        double latitudeSum = 0;
+        for (Graph.Station station : graph.getAllStations().values()) {
+            latitudeSum += station.getLatitude();
+        }
+        double scale = Math.cos(Math.toRadians(latitudeSum / graph.getStationCount()));
+        for (Graph.Station station : graph.getAllStations().values()) {
+            x[station.getId()] = (float) (station.getLongitude() * scale);
+            y[station.getId()] = (float) -station.getLatitude();
+        }
+    }
+
+    /**
+     * Fruchterman-Reingold with an ideal edge length of 1 and repulsion cut off beyond two lengths, so each
+     * iteration is linear in the number of stations. It starts from the hop distances to three far-apart
+     * landmark stations, which already places the network roughly, so few iterations are needed.
+     */
+    private static void forceDirected(Graph graph, float[] x, float[] y) {
+        int limit = x.length;
+        int[][] neighbors = new int[limit][];
+        int first = -1;
+        for (int id = 0; id < limit; id++) {
+            Graph.Station station = graph.getStationById(id);
+            if (station == null) {
+                continue;
+            }
+            neighbors[id] = new int[station.getConnections().size()];
+            int i = 0;
+            for (Graph.Station neighbor : station.getConnections().keySet()) {
+                neighbors[id][i++] = neighbor.getId();
+            }
+            Arrays.sort(neighbors[id]);
+            if (first < 0) {
+                first = id;
+            }
+        }
+        if (first < 0) {
+            return;
+        }
+
+        int[] fromFirst = hops(neighbors, first);
+        int[] fromA = hops(neighbors, farthest(fromFirst, null));
+        int[] fromB = hops(neighbors, farthest(fromA, null));
+        int[] fromC = hops(neighbors, farthest(fromA, fromB));
+        int diameter = fromA[farthest(fromA, null)];
+
+        Random random = new Random(SEED);
+        double side = Math.sqrt(graph.getStationCount());
+        double spread = side / Math.max(1, diameter);
+        for (int id = 0; id < limit; id++) {
+            if (neighbors[id] == null) {
+                continue;
+            }
+            if (fromA[id] < 0) {
+                // Not connected to the main component: park it at a random spot.
+                x[id] = (float) (random.nextDouble() * side);
+                y[id] = (float) (random.nextDouble() * side);
+            } else {
+                x[id] = (float) (side / 2 + (fromA[id] - fromB[id]) * spread / 2 + random.nextDouble() - 0.5);
+                y[id] = (float) (side / 2 + (fromC[id] - diameter / 2.0) * spread / 2 + random.nextDouble() - 0.5);
+            }
+        }
+
+        int iterations = (int) Math.max(30, Math.min(200, 2_000_000L / Math.max(1, limit)));
+        double temperature = side / 20;
+        float[] dx = new float[limit];
+        float[] dy = new float[limit];
+        int cells = (int) Math.ceil(side / 2) + 1;
+        int[] cellStart = new int[cells * cells + 1];
+        int[] cellStations = new int[limit];
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            // Bucket the stations into cells two edge lengths wide for the repulsion pass.
+            Arrays.fill(cellStart, 0);
+            for (int id = 0; id < limit; id++) {
+                if (neighbors[id] != null) {
+                    cellStart[cellOf(x[id], y[id], cells) + 1]++;
+                }
+            }
+            for (int cell = 0; cell < cells * cells; cell++) {
+                cellStart[cell + 1] += cellStart[cell];
+            }
+            int[] fill = Arrays.copyOf(cellStart, cells * cells);
+            for (int id = 0; id < limit; id++) {
+                if (neighbors[id] != null) {
+                    cellStations[fill[cellOf(x[id], y[id], cells)]++] = id;
+                }
+            }
+
+            IntStream.range(0, limit).parallel().forEach(id -> {
+                if (neighbors[id] == null) {
+                    return;
+                }
+                double fx = 0;
+                double fy = 0;
+                int column = Math.min(cells - 1, Math.max(0, (int) (x[id] / 2)));
+                int row = Math.min(cells - 1, Math.max(0, (int) (y[id] / 2)));
+                for (int r = Math.max(0, row - 1); r <= Math.min(cells - 1, row + 1); r++) {
+                    for (int c = Math.max(0, column - 1); c <= Math.min(cells - 1, column + 1); c++) {
+                        int cell = r * cells + c;
+                        for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                            int other = cellStations[i];
+                            if (other == id) {
+                                continue;
+                            }
+                            double ddx = x[id] - x[other];
+                            double ddy = y[id] - y[other];
+                            double distanceSquared = ddx * ddx + ddy * ddy;
+                            if (distanceSquared < 4) {
+                                if (distanceSquared < 1e-6) {
+                                    // Coincident stations: separate them in a direction fixed by their ids.
+                                    ddx = (id - other) * 1e-3;
+                                    ddy = (other - id) * 0.5e-3;
+                                    distanceSquared = ddx * ddx + ddy * ddy;
+                                }
+                                fx += ddx / distanceSquared;
+                                fy += ddy / distanceSquared;
+                            }
+                        }
+                    }
+                }
+                for (int other : neighbors[id]) {
+                    double ddx = x[other] - x[id];
+                    double ddy = y[other] - y[id];
+                    double distance = Math.sqrt(ddx * ddx + ddy * ddy);
+                    fx += ddx * distance;
+                    fy += ddy * distance;
+                }
+                dx[id] = (float) fx;
+                dy[id] = (float) fy;
+            });
+
+            double step = temperature;
+            IntStream.range(0, limit).parallel().forEach(id -> {
+                if (neighbors[id] == null) {
+                    return;
+                }
+                double length = Math.sqrt(dx[id] * dx[id] + dy[id] * dy[id]);
+                if (length > 0) {
+                    double move = Math.min(length, step);
+                    x[id] = (float) Math.max(0, Math.min(side, x[id] + dx[id] / length * move));
+                    y[id] = (float) Math.max(0, Math.min(side, y[id] + dy[id] / length * move));
+                }
+            });
+            temperature = Math.max(0.01, temperature * 0.97);
+        }
+    }
+
+    /**
+     * Hop counts from {@code source}, -1 for stations it cannot reach.
+     */
+    private static int[] hops(int[][] neighbors, int source) {
+        int[] distance = new int[neighbors.length];
+        Arrays.fill(distance, -1);
+        int[] queue = new int[neighbors.length];
+        int head = 0;
+        int tail = 0;
+        distance[source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int current = queue[head++];
+            for (int next : neighbors[current]) {
+                if (distance[next] < 0) {
+                    distance[next] = distance[current] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Station farthest from the source of {@code distance}, or from both sources when {@code other} is given.
+     */
+    private static int farthest(int[] distance, int[] other) {
+        int best = 0;
+        int bestDistance = -1;
+        for (int id = 0; id < distance.length; id++) {
+            int d = other == null ? distance[id] : Math.min(distance[id], other[id]);
+            if (d > bestDistance) {
+                best = id;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    private static int cellOf(float x, float y, int cells) {
+        int column = Math.min(cells - 1, Math.max(0, (int) (x / 2)));
+        int row = Math.min(cells - 1, Math.max(0, (int) (y / 2)));
+        return row * cells + column;
+    }
+
+    /**
+     * Translates and scales the positions so the longer side spans {@link #EXTENT}.
+     */
+    private static void normalize(float[] x, float[] y) {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int id = 0; id < x.length; id++) {
+            if (!Float.isNaN(x[id])) {
+                minX = Math.min(minX, x[id]);
+                minY = Math.min(minY, y[id]);
+                maxX = Math.max(maxX, x[id]);
+                maxY = Math.max(maxY, y[id]);
+            }
+        }
+        double span = Math.max(maxX - minX, maxY - minY);
+        double scale = span > 0 ? EXTENT / span : 1;
+        for (int id = 0; id < x.length; id++) {
+            if (!Float.isNaN(x[id])) {
+                x[id] = (float) ((x[id] - minX) * scale);
+                y[id] = (float) ((y[id] - minY) * scale);
+            }
+        }
+    }
+
+    /**
+     * FNV hash over the station names and their connections in id order.
+     */
+    private static long fingerprint(Graph graph) {
+        long hash = 0xCBF29CE484222325L;
+        for (int id = 0; id < graph.getStationIdLimit(); id++) {
+            Graph.Station station = graph.getStationById(id);
+            if (station == null) {
+                hash = (hash ^ 0xFF) * 0x100000001B3L;
+                continue;
+            }
+            String name = station.getName();
+            for (int i = 0; i < name.length(); i++) {
+                hash = (hash ^ name.charAt(i)) * 0x100000001B3L;
+            }
+            long connections = 0;
+            for (Graph.Station neighbor : station.getConnections().keySet()) {
+                connections += neighbor.getId() * 0x9E3779B97F4A7C15L;
+            }
+            hash = (hash ^ connections) * 0x100000001B3L;
+            hash = (hash ^ (Double.doubleToLongBits(station.getLatitude()) * 31
+                    + Double.doubleToLongBits(station.getLongitude()))) * 0x100000001B3L;
+        }
+        return hash;
+    }
+}
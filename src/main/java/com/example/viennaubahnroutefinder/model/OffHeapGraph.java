@@ -0,0 +1,315 @@
+package com.example.viennaubahnroutefinder.model;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Read-only {@link Graph} backing that keeps adjacency, weights and labels in a single
+ * {@link MemorySegment} instead of on-heap objects.
+ *
+ * <p>The adjacency is stored in compressed sparse row form indexed by {@link Graph.Station#getId()},
+ * so ids (and anything keyed by them) stay interchangeable between the two backings. The segment
+ * is either allocated from a caller-owned {@link Arena} or mapped from a snapshot file written by
+ * {@link #writeTo(Path)}; closing the arena releases the graph.</p>
+ *
+ * <p>Segment layout (little-endian, every section 8-byte aligned):</p>
+ * <pre>
+ *   header        magic, format, stations, edges, colors, label bytes
+ *   offsets       int[stations + 1]   first edge of each station
+ *   targets       int[edges]          destination station id
+ *   lines         int[edges]          line number
+ *   colors        int[edges]          index into the colour labels
+ *   connections   int[edges]          connection id, see {@link Graph.Edge#getId()}
+ *   weights       double[edges]       edge distance
+ *   sorted        int[stations]       station ids ordered by UTF-8 name, for lookup
+ *   labelOffsets  int[stations + colors + 1]
+ *   labels        byte[label bytes]   station names followed by colour names
+ * </pre>
+ */
+public final class OffHeapGraph {
+
+    private static final int MAGIC = 0x5542484E; // "UBHN"
+    private static final int FORMAT = 2; // 2 added the connections section
+    private static final long HEADER_BYTES = 24;
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final MemorySegment segment;
+    private final int stationCount;
+    private final int edgeCount;
+    private final int colorCount;
+
+    private final long offsetsBase;
+    private final long targetsBase;
+    private final long linesBase;
+    private final long colorsBase;
+    private final long connectionsBase;
+    private final long weightsBase;
+    private final long sortedBase;
+    private final long labelOffsetsBase;
+    private final long labelsBase;
+
+    private OffHeapGraph(MemorySegment segment) {
+        if (segment.byteSize() < HEADER_BYTES || segment.get(INT, 0) != MAGIC) {
+            throw new IllegalArgumentException("Not an off-heap graph snapshot");
+        }
+        if (segment.get(INT, 4) != FORMAT) {
+            throw new IllegalArgumentException("Unsupported snapshot format " + segment.get(INT, 4)
+                    + ", expected " + FORMAT + "; write the snapshot again");
+        }
+
+        this.segment = segment;
+        this.stationCount = segment.get(INT, 8);
+        this.edgeCount = segment.get(INT, 12);
+        this.colorCount = segment.get(INT, 16);
+        int labelBytes = segment.get(INT, 20);
+
+        this.offsetsBase = HEADER_BYTES;
+        this.targetsBase = align(offsetsBase + 4L * (stationCount + 1));
+        this.linesBase = align(targetsBase + 4L * edgeCount);
+        this.colorsBase = align(linesBase + 4L * edgeCount);
+        this.connectionsBase = align(colorsBase + 4L * edgeCount);
+        this.weightsBase = align(connectionsBase + 4L * edgeCount);
+        this.sortedBase = align(weightsBase + 8L * edgeCount);
+        this.labelOffsetsBase = align(sortedBase + 4L * stationCount);
+        this.labelsBase = align(labelOffsetsBase + 4L * (stationCount + colorCount + 1));
+
+        if (segment.byteSize() < labelsBase + labelBytes) {
+            throw new IllegalArgumentException("Truncated off-heap graph snapshot");
+        }
+    }
+
+    /**
+     * Copies {@code graph} into a segment allocated from {@code arena}.
+     */
+    public static OffHeapGraph copyOf(Graph graph, Arena arena) {
+        int stations = graph.getStationIdLimit();
+        Graph.Station[] byId = new Graph.Station[stations];
+        int edges = 0;
+        for (Graph.Station station : graph.getAllStations().values()) {
+            byId[station.getId()] = station;
+            edges += station.getConnections().size();
+        }
+
+        byte[][] names = new byte[stations][];
+        Map<String, Integer> colorIds = new LinkedHashMap<>();
+        long labelBytes = 0;
+        for (int id = 0; id < stations; id++) {
+            names[id] = byId[id] == null ? new byte[0] : byId[id].getName().getBytes(StandardCharsets.UTF_8);
+            labelBytes += names[id].length;
+            if (byId[id] != null) {
+                for (Graph.Edge edge : byId[id].getConnections().values()) {
+                    colorIds.putIfAbsent(edge.getColor(), colorIds.size());
+                }
+            }
+        }
+        List<byte[]> colorNames = new ArrayList<>();
+        for (String color : colorIds.keySet()) {
+            byte[] bytes = color.getBytes(StandardCharsets.UTF_8);
+            colorNames.add(bytes);
+            labelBytes += bytes.length;
+        }
+        if (labelBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Station labels exceed 2 GB");
+        }
+
+        long size = layoutSize(stations, edges, colorIds.size(), (int) labelBytes);
+        MemorySegment segment = arena.allocate(size, 8);
+        segment.set(INT, 0, MAGIC);
+        segment.set(INT, 4, FORMAT);
+        segment.set(INT, 8, stations);
+        segment.set(INT, 12, edges);
+        segment.set(INT, 16, colorIds.size());
+        segment.set(INT, 20, (int) labelBytes);
+        OffHeapGraph result = new OffHeapGraph(segment);
+
+        int edge = 0;
+        for (int id = 0; id < stations; id++) {
+            segment.set(INT, result.offsetsBase + 4L * id, edge);
+            if (byId[id] == null) {
+                continue;
+            }
+            for (Graph.Edge e : byId[id].getConnections().values()) {
+                segment.set(INT, result.targetsBase + 4L * edge, e.getDestination().getId());
+                segment.set(INT, result.linesBase + 4L * edge, e.getLine());
+                segment.set(INT, result.colorsBase + 4L * edge, colorIds.get(e.getColor()));
+                segment.set(INT, result.connectionsBase + 4L * edge, e.getId());
+                segment.set(DOUBLE, result.weightsBase + 8L * edge, e.getDistance());
+                edge++;
+            }
+        }
+        segment.set(INT, result.offsetsBase + 4L * stations, edge);
+
+        Integer[] sorted = new Integer[stations];
+        for (int id = 0; id < stations; id++) {
+            sorted[id] = id;
+        }
+        Arrays.sort(sorted, (a, b) -> Arrays.compareUnsigned(names[a], names[b]));
+        for (int i = 0; i < stations; i++) {
+            segment.set(INT, result.sortedBase + 4L * i, sorted[i]);
+        }
+
+        int label = 0;
+        long cursor = 0;
+        for (int id = 0; id < stations; id++) {
+            segment.set(INT, result.labelOffsetsBase + 4L * label++, (int) cursor);
+            MemorySegment.copy(names[id], 0, segment, ValueLayout.JAVA_BYTE, result.labelsBase + cursor, names[id].length);
+            cursor += names[id].length;
+        }
+        for (byte[] color : colorNames) {
+            segment.set(INT, result.labelOffsetsBase + 4L * label++, (int) cursor);
+            MemorySegment.copy(color, 0, segment, ValueLayout.JAVA_BYTE, result.labelsBase + cursor, color.length);
+            cursor += color.length;
+        }
+        segment.set(INT, result.labelOffsetsBase + 4L * label, (int) cursor);
+
+        return result;
+    }
+
+    /**
+     * Maps a snapshot previously written with {@link #writeTo(Path)}. The mapping lives as long as {@code arena}.
+     */
+    public static OffHeapGraph map(Path file, Arena arena) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new OffHeapGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena));
+        }
+    }
+
+    public void writeTo(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (position < segment.byteSize()) {
+                long chunk = Math.min(segment.byteSize() - position, 1 << 30);
+                var buffer = segment.asSlice(position, chunk).asByteBuffer();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                position += chunk;
+            }
+        }
+    }
+
+    public int getStationCount() {
+        return stationCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public MemorySegment getSegment() {
+        return segment;
+    }
+
+    /**
+     * Index of the first outgoing edge of {@code station}.
+     */
+    public int firstEdge(int station) {
+        return segment.get(INT, offsetsBase + 4L * station);
+    }
+
+    /**
+     * Index one past the last outgoing edge of {@code station}.
+     */
+    public int endEdge(int station) {
+        return segment.get(INT, offsetsBase + 4L * (station + 1));
+    }
+
+    public int edgeTarget(int edge) {
+        return segment.get(INT, targetsBase + 4L * edge);
+    }
+
+    public int edgeLine(int edge) {
+        return segment.get(INT, linesBase + 4L * edge);
+    }
+
+    public int edgeConnection(int edge) {
+        return segment.get(INT, connectionsBase + 4L * edge);
+    }
+
+    public double edgeWeight(int edge) {
+        return segment.get(DOUBLE, weightsBase + 8L * edge);
+    }
+
+    public String edgeColor(int edge) {
+        return label(stationCount + segment.get(INT, colorsBase + 4L * edge));
+    }
+
+    public String stationName(int station) {
+        return label(station);
+    }
+
+    /**
+     * Looks up a station id by name with a binary search over the name-ordered index, or returns -1.
+     */
+    public int stationId(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = stationCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = segment.get(INT, sortedBase + 4L * mid);
+            int cmp = compareLabel(id, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return labelLength(id) == 0 ? -1 : id;
+            }
+        }
+        return -1;
+    }
+
+    private String label(int index) {
+        int start = segment.get(INT, labelOffsetsBase + 4L * index);
+        int end = segment.get(INT, labelOffsetsBase + 4L * (index + 1));
+        byte[] bytes = new byte[end - start];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, labelsBase + start, bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int labelLength(int index) {
+        return segment.get(INT, labelOffsetsBase + 4L * (index + 1)) - segment.get(INT, labelOffsetsBase + 4L * index);
+    }
+
+    private int compareLabel(int index, byte[] key) {
+        long start = labelsBase + segment.get(INT, labelOffsetsBase + 4L * index);
+        int length = labelLength(index);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int a = Byte.toUnsignedInt(segment.get(ValueLayout.JAVA_BYTE, start + i));
+            int b = Byte.toUnsignedInt(key[i]);
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - key.length;
+    }
+
+    private static long layoutSize(int stations, int edges, int colors, int labelBytes) {
+        long targetsBase = align(HEADER_BYTES + 4L * (stations + 1));
+        long linesBase = align(targetsBase + 4L * edges);
+        long colorsBase = align(linesBase + 4L * edges);
+        long connectionsBase = align(colorsBase + 4L * edges);
+        long weightsBase = align(connectionsBase + 4L * edges);
+        long sortedBase = align(weightsBase + 8L * edges);
+        long labelOffsetsBase = align(sortedBase + 4L * stations);
+        long labelsBase = align(labelOffsetsBase + 4L * (stations + colors + 1));
+        return labelsBase + labelBytes;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+}
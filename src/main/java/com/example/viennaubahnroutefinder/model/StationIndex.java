@@ -0,0 +1,315 @@
+package com.example.viennaubahnroutefinder.model;
+
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Type-ahead search over station names, built once per graph.
+ *
+ * <p>Names are compared by a normalised key: diacritics are stripped, the text is lower-cased, "ß"
+ * becomes "ss", and punctuation becomes single spaces, so "sudtiroler" finds "Südtiroler Platz". The
+ * keys are kept in one sorted array. The word starts within them are kept in a second sorted array, as
+ * int pairs pointing into the keys, so no substrings are stored. A search returns, in this order:</p>
+ * <ol>
+ *   <li>names whose key starts with the query;</li>
+ *   <li>names with a later word starting with the query ("platz" finds "Südtiroler Platz");</li>
+ *   <li>when those are too few, names with a word whose start is within one or two edits of the query.
+ *   Only words with the same first letter are considered, and the sorted arrays are walked like a trie,
+ *   so names sharing a prefix share the work and a prefix too far from the query is skipped whole.</li>
+ * </ol>
+ */
+public class StationIndex {
+
+    private final String[] names;
+    private final String[] keys;
+    // Word starts: station position in names/keys and the offset of the word in its key, sorted by suffix.
+    private final int[] wordStations;
+    private final int[] wordOffsets;
+
+    public StationIndex(Collection<String> stationNames) {
+        int count = stationNames.size();
+        String[][] entries = new String[count][];
+        int i = 0;
+        for (String name : stationNames) {
+            entries[i++] = new String[]{normalize(name), name};
+        }
+        Arrays.sort(entries, (a, b) -> {
+            int byKey = a[0].compareTo(b[0]);
+            return byKey != 0 ? byKey : a[1].compareTo(b[1]);
+        });
+        this.names = new String[count];
+        this.keys = new String[count];
+        for (i = 0; i < count; i++) {
+            keys[i] = entries[i][0];
+            names[i] = entries[i][1];
+        }
+
+        List<long[]> words = new ArrayList<>();
+        for (int station = 0; station < count; station++) {
+            String key = keys[station];
+            for (int offset = 1; offset < key.length(); offset++) {
+                if (key.charAt(offset - 1) == ' ') {
+                    words.add(new long[]{station, offset});
+                }
+            }
+        }
+        words.sort((a, b) -> compareSuffixes(keys[(int) a[0]], (int) a[1], keys[(int) b[0]], (int) b[1]));
+        this.wordStations = new int[words.size()];
+        this.wordOffsets = new int[words.size()];
+        for (i = 0; i < words.size(); i++) {
+            wordStations[i] = (int) words.get(i)[0];
+            wordOffsets[i] = (int) words.get(i)[1];
+        }
+    }
+
+    public static StationIndex of(Graph graph) {
+        return new StationIndex(graph.getAllStations().keySet());
+    }
+
+    /**
+     * Search key of a name or query: without diacritics, lower case, words separated by single spaces.
+     */
+    public static String normalize(String text) {
+        String decomposed = Normalizer.isNormalized(text, Normalizer.Form.NFD)
+                ? text
+                : Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder key = new StringBuilder(decomposed.length());
+        boolean space = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (c == 'ß') {
+                key.append("ss");
+                space = false;
+            } else if (Character.isLetterOrDigit(c)) {
+                key.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space && key.length() > 0) {
+                key.append(' ');
+                space = true;
+            }
+        }
+        if (space) {
+            key.setLength(key.length() - 1);
+        }
+        return key.toString();
+    }
+
+    /**
+     * All station names in key order.
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public boolean contains(String name) {
+        if (name == null) {
+            return false;
+        }
+        String key = normalize(name);
+        for (int i = lowerBound(key); i < keys.length && keys[i].equals(key); i++) {
+            if (names[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Up to {@code limit} station names matching {@code query}, best matches first. An empty query matches
+     * the first names in key order.
+     */
+    public List<String> search(String query, int limit) {
+        String key = normalize(query);
+        List<String> results = new ArrayList<>(Math.min(limit, 64));
+        BitSet taken = new BitSet(names.length);
+
+        for (int i = lowerBound(key); i < keys.length && results.size() < limit && keys[i].startsWith(key); i++) {
+            taken.set(i);
+            results.add(names[i]);
+        }
+        if (key.isEmpty()) {
+            return results;
+        }
+
+        for (int i = wordLowerBound(key); i < wordStations.length && results.size() < limit
+                && keys[wordStations[i]].startsWith(key, wordOffsets[i]); i++) {
+            if (!taken.get(wordStations[i])) {
+                taken.set(wordStations[i]);
+                results.add(names[wordStations[i]]);
+            }
+        }
+
+        if (results.size() < limit && key.length() >= 3) {
+            fuzzy(key, limit, results, taken);
+        }
+        return results;
+    }
+
+    private void fuzzy(String key, int limit, List<String> results, BitSet taken) {
+        int maxEdits = key.length() >= 7 ? 2 : 1;
+        int needed = limit - results.size();
+        // Matches by edit count. Exact prefixes are already in the results, so one edit is the best
+        // possible. The scans allow one more edit at a time, and stop once there are enough matches:
+        // a wider bound prunes far less, and is only needed when the closer matches are too few.
+        List<List<Integer>> matches = new ArrayList<>();
+        for (int edits = 0; edits <= maxEdits; edits++) {
+            matches.add(new ArrayList<>());
+        }
+        int[][] rows = new int[key.length() + maxEdits + 1][key.length() + 1];
+        for (int bound = 1; bound <= maxEdits && count(matches) < needed; bound++) {
+            fuzzyScan(key, bound, false, needed, matches, taken, rows);
+            fuzzyScan(key, bound, true, needed, matches, taken, rows);
+        }
+
+        for (List<Integer> bucket : matches) {
+            Collections.sort(bucket);
+            for (int station : bucket) {
+                if (results.size() >= limit) {
+                    return;
+                }
+                results.add(names[station]);
+            }
+        }
+    }
+
+    /**
+     * Scores the keys, or the word starts when {@code words} is set, that share the query's first letter,
+     * by the smallest edit distance between the query and a prefix of the key or word, and adds those
+     * within {@code maxEdits} until {@code needed} have been matched.
+     *
+     * <p>The range is sorted, so it is walked like a trie: row {@code k} of the edit-distance table
+     * belongs to the first {@code k} characters, and is kept for the next entry as long as it shares
+     * them. Once every cell of a row is over {@code maxEdits}, no entry under that prefix can match and
+     * the scan jumps past all of them.</p>
+     */
+    private void fuzzyScan(String key, int maxEdits, boolean words, int needed, List<List<Integer>> matches,
+                           BitSet taken, int[][] rows) {
+        int n = key.length();
+        int window = n + maxEdits;
+        int[] best = new int[window + 1];
+        for (int j = 0; j <= n; j++) {
+            rows[0][j] = j;
+        }
+        best[0] = n;
+
+        String first = key.substring(0, 1);
+        int end = words ? wordStations.length : keys.length;
+        int i = words ? wordLowerBound(first) : lowerBound(first);
+        String lastText = null;
+        int lastOffset = 0;
+        // Rows 0..computed hold the last entry's prefix; dead is the depth where it left the bound, or -1.
+        int computed = 0;
+        int dead = -1;
+        int edits = 0;
+        while (i < end && count(matches) < needed) {
+            int station = words ? wordStations[i] : i;
+            String text = keys[station];
+            int offset = words ? wordOffsets[i] : 0;
+            if (!text.startsWith(first, offset)) {
+                break;
+            }
+            int length = Math.min(text.length() - offset, window);
+            int common = 0;
+            if (lastText != null) {
+                int shared = Math.min(computed, length);
+                while (common < shared && lastText.charAt(lastOffset + common) == text.charAt(offset + common)) {
+                    common++;
+                }
+            }
+
+            if (dead < 0 || common < dead) {
+                dead = -1;
+                for (int k = common + 1; k <= length; k++) {
+                    char c = text.charAt(offset + k - 1);
+                    int[] previous = rows[k - 1];
+                    int[] current = rows[k];
+                    current[0] = k;
+                    int rowMin = k;
+                    for (int j = 1; j <= n; j++) {
+                        int cost = key.charAt(j - 1) == c ? 0 : 1;
+                        current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                        rowMin = Math.min(rowMin, current[j]);
+                    }
+                    best[k] = Math.min(best[k - 1], current[n]);
+                    if (rowMin > maxEdits) {
+                        dead = k;
+                        break;
+                    }
+                }
+                computed = dead >= 0 ? dead : length;
+                edits = Math.min(best[computed], maxEdits + 1);
+            }
+            lastText = text;
+            lastOffset = offset;
+
+            if (dead >= 0 && edits > maxEdits) {
+                char last = text.charAt(offset + dead - 1);
+                if (last != Character.MAX_VALUE) {
+                    String after = text.substring(offset, offset + dead - 1) + (char) (last + 1);
+                    i = Math.max(i + 1, words ? wordLowerBound(after) : lowerBound(after));
+                    continue;
+                }
+            }
+            if (edits <= maxEdits && !taken.get(station)) {
+                taken.set(station);
+                matches.get(edits).add(station);
+            }
+            i++;
+        }
+    }
+
+    private static int count(List<List<Integer>> matches) {
+        int count = 0;
+        for (List<Integer> bucket : matches) {
+            count += bucket.size();
+        }
+        return count;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int wordLowerBound(String key) {
+        int low = 0;
+        int high = wordStations.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareSuffixes(keys[wordStations[mid]], wordOffsets[mid], key, 0) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compareSuffixes(String a, int aOffset, String b, int bOffset) {
+        int length = Math.min(a.length() - aOffset, b.length() - bOffset);
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(aOffset + i);
+            char cb = b.charAt(bOffset + i);
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        return (a.length() - aOffset) - (b.length() - bOffset);
+    }
+}
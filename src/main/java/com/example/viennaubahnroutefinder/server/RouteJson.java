@@ -0,0 +1,93 @@
+package com.example.viennaubahnroutefinder.server;
+
+import com.example.viennaubahnroutefinder.algorithm.LatencyHistogram;
+import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import com.example.viennaubahnroutefinder.algorithm.RouteMetrics;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Minimal JSON rendering for the routing service; the project has no JSON library dependency. Route
+ * results are streamed through a {@link RouteWriter}.
+ */
+public final class RouteJson {
+
+    private RouteJson() {
+    }
+
+    /**
+     * Streams a route result; the routes themselves are written by {@link RouteWriter#appendJsonRoute}.
+     */
+    public static void routes(RouteWriter out, RouteFinder.Algorithm algorithm, long graphVersion, boolean complete,
+                              List<RouteFinder.Route> routes) throws IOException {
+        out.appendAscii("{\"algorithm\":\"").appendAscii(algorithm.name()).append('"')
+                .appendAscii(",\"graphVersion\":").append(graphVersion)
+                .appendAscii(",\"complete\":").append(complete)
+                .appendAscii(",\"count\":").append(routes.size())
+                .appendAscii(",\"routes\":[");
+        for (int i = 0; i < routes.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.appendJsonRoute(routes.get(i));
+        }
+        out.appendAscii("]}");
+    }
+
+    public static String metrics(RouteMetrics metrics) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"enabled\":").append(metrics.isEnabled()).append(",\"series\":[");
+        List<RouteMetrics.Series> series = metrics.getActiveSeries();
+        for (int i = 0; i < series.size(); i++) {
+            RouteMetrics.Series s = series.get(i);
+            LatencyHistogram latency = s.getLatency();
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"engine\":\"").append(s.getEngine())
+                    .append("\",\"queryType\":\"").append(s.getQueryType())
+                    .append("\",\"queries\":").append(s.getQueries())
+                    .append(",\"stopped\":").append(s.getStopped())
+                    .append(",\"latencyNanos\":{\"mean\":").append((long) latency.getMeanNanos())
+                    .append(",\"p50\":").append(latency.getValueAtPercentile(50))
+                    .append(",\"p90\":").append(latency.getValueAtPercentile(90))
+                    .append(",\"p99\":").append(latency.getValueAtPercentile(99))
+                    .append(",\"p999\":").append(latency.getValueAtPercentile(99.9))
+                    .append(",\"max\":").append(latency.getMaxNanos())
+                    .append("},\"settledNodes\":").append(s.getSettledNodes())
+                    .append(",\"relaxedEdges\":").append(s.getRelaxedEdges())
+                    .append(",\"heapPushes\":").append(s.getHeapPushes())
+                    .append(",\"routes\":").append(s.getRoutes())
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    public static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        return json.append('}').toString();
+    }
+
+    public static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.viennaubahnroutefinder.server;
+
+import com.example.viennaubahnroutefinder.algorithm.CompactRoute;
+import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import com.example.viennaubahnroutefinder.model.Graph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+
+/**
+ * Streams routes as UTF-8 JSON or CSV into a byte buffer that is drained into a channel whenever it fills,
+ * without building intermediate strings.
+ *
+ * <p>Numbers are written digit by digit, and distances with three decimals. Station names are
+ * escaped straight into the buffer. For {@link CompactRoute}s, each name is encoded only once per graph and
+ * then copied from a cache indexed by station id. Not thread-safe; callers writing from several threads
+ * synchronise on the writer.</p>
+ *
+ * <pre>
+ * try (RouteWriter out = new RouteWriter(FileChannel.open(file, CREATE, WRITE))) {
+ *     out.appendJsonRoute(route, graph).append('\n');
+ * }
+ * </pre>
+ */
+public class RouteWriter implements Flushable, Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    // The longest any single value written without a capacity check can be: a long, or one escaped char.
+    private static final int MAX_ATOM = 24;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private Graph cachedGraph;
+    private byte[][] jsonNames;
+    private byte[][] csvNames;
+
+    public RouteWriter(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public RouteWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, MAX_ATOM * 2));
+    }
+
+    /**
+     * Writes an ASCII character.
+     */
+    public RouteWriter append(char c) throws IOException {
+        ensure(1);
+        buffer.put((byte) c);
+        return this;
+    }
+
+    /**
+     * Writes text known to be ASCII and free of characters that need escaping, such as enum names.
+     */
+    public RouteWriter appendAscii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            ensure(1);
+            buffer.put((byte) text.charAt(i));
+        }
+        return this;
+    }
+
+    public RouteWriter append(boolean value) throws IOException {
+        return appendAscii(value ? "true" : "false");
+    }
+
+    public RouteWriter append(long value) throws IOException {
+        ensure(MAX_ATOM);
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return appendAscii("-9223372036854775808");
+            }
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        // Digits were written least significant first.
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte swap = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, swap);
+        }
+        return this;
+    }
+
+    /**
+     * Writes {@code value} rounded to three decimals, e.g. {@code 12.305}; JSON {@code null} if it is not
+     * finite.
+     */
+    public RouteWriter appendDecimal(double value) throws IOException {
+        if (!Double.isFinite(value)) {
+            return appendAscii("null");
+        }
+        long thousandths = Math.round(Math.abs(value) * 1000);
+        if (value < 0 && thousandths != 0) {
+            append('-');
+        }
+        append(thousandths / 1000).append('.');
+        long fraction = thousandths % 1000;
+        ensure(3);
+        buffer.put((byte) ('0' + fraction / 100));
+        buffer.put((byte) ('0' + fraction / 10 % 10));
+        buffer.put((byte) ('0' + fraction % 10));
+        return this;
+    }
+
+    /**
+     * Writes {@code value} as a quoted JSON string.
+     */
+    public RouteWriter appendJsonString(String value) throws IOException {
+        append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            ensure(MAX_ATOM);
+            switch (c) {
+                case '"': buffer.put((byte) '\\').put((byte) '"'); break;
+                case '\\': buffer.put((byte) '\\').put((byte) '\\'); break;
+                case '\n': buffer.put((byte) '\\').put((byte) 'n'); break;
+                case '\r': buffer.put((byte) '\\').put((byte) 'r'); break;
+                case '\t': buffer.put((byte) '\\').put((byte) 't'); break;
+                default:
+                    if (c < 0x20) {
+                        buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                                .put(hex(c >> 4)).put(hex(c));
+                    } else {
+                        i = putUtf8(value, i);
+                    }
+            }
+        }
+        return append('"');
+    }
+
+    /**
+     * Writes {@code value} as a CSV field, quoted only if it contains a comma, quote or line break.
+     */
+    public RouteWriter appendCsv(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (quote) {
+            append('"');
+        }
+        for (int i = 0; i < value.length(); i++) {
+            ensure(MAX_ATOM);
+            if (value.charAt(i) == '"') {
+                buffer.put((byte) '"').put((byte) '"');
+            } else {
+                i = putUtf8(value, i);
+            }
+        }
+        if (quote) {
+            append('"');
+        }
+        return this;
+    }
+
+    /**
+     * Writes {@code {"stations":[..],"lines":[..],"distance":..,"lineChanges":..}} with one line per edge.
+     */
+    public RouteWriter appendJsonRoute(CompactRoute route, Graph graph) throws IOException {
+        useGraph(graph);
+        appendAscii("{\"stations\":[");
+        for (int i = 0; i < route.getStationCount(); i++) {
+            if (i > 0) {
+                append(',');
+            }
+            int id = route.getStationId(i);
+            if (jsonNames[id] == null) {
+                jsonNames[id] = encode(graph.getStationById(id).getName(), true);
+            }
+            put(jsonNames[id]);
+        }
+        appendAscii("],\"lines\":[");
+        int edge = 0;
+        for (int leg = 0; leg < route.getLegCount(); leg++) {
+            for (; edge < route.getLegEnd(leg); edge++) {
+                if (edge > 0) {
+                    append(',');
+                }
+                append(route.getLegLine(leg));
+            }
+        }
+        appendAscii("],\"distance\":").appendDecimal(route.getDistance());
+        return appendAscii(",\"lineChanges\":").append(route.getLineChanges()).append('}');
+    }
+
+    /**
+     * Same as {@link #appendJsonRoute(CompactRoute, Graph)} for a route that has not been compacted, adding
+     * {@code "partial":true} to a route that stops short of the destination.
+     */
+    public RouteWriter appendJsonRoute(RouteFinder.Route route) throws IOException {
+        appendAscii("{\"stations\":[");
+        List<Graph.Station> stations = route.getStations();
+        for (int i = 0; i < stations.size(); i++) {
+            if (i > 0) {
+                append(',');
+            }
+            appendJsonString(stations.get(i).getName());
+        }
+        appendAscii("],\"lines\":[");
+        List<Graph.Edge> edges = route.getEdges();
+        for (int i = 0; i < edges.size(); i++) {
+            if (i > 0) {
+                append(',');
+            }
+            append(edges.get(i).getLine());
+        }
+        appendAscii("],\"distance\":").appendDecimal(route.getTotalDistance());
+        appendAscii(",\"lineChanges\":").append(route.getLineChanges());
+        if (route.isPartial()) {
+            appendAscii(",\"partial\":true");
+        }
+        return append('}');
+    }
+
+    /**
+     * Writes the station names of {@code route} separated by {@code ;} as one CSV field. A name containing
+     * {@code ;} or a quote is itself quoted inside the field, with its quotes doubled, so the path can be
+     * split on the separators outside quotes once the field has been read.
+     */
+    public RouteWriter appendCsvPath(CompactRoute route, Graph graph) throws IOException {
+        useGraph(graph);
+        boolean quote = false;
+        for (int i = 0; i < route.getStationCount() && !quote; i++) {
+            byte[] name = csvName(graph, route.getStationId(i));
+            quote = name.length > 0 && name[0] == '"';
+        }
+        if (quote) {
+            append('"');
+        }
+        for (int i = 0; i < route.getStationCount(); i++) {
+            if (i > 0) {
+                append(';');
+            }
+            byte[] name = csvName(graph, route.getStationId(i));
+            if (name.length > 0 && name[0] == '"') {
+                // Write the escaped name without its own quotes; the whole field is quoted.
+                put(name, 1, name.length - 2);
+            } else {
+                put(name, 0, name.length);
+            }
+        }
+        if (quote) {
+            append('"');
+        }
+        return this;
+    }
+
+    /**
+     * Writes out everything buffered so far and flushes the channel if it is {@link Flushable}.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        if (channel instanceof Flushable) {
+            ((Flushable) channel).flush();
+        }
+    }
+
+    /**
+     * Flushes and closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void useGraph(Graph graph) {
+        if (graph != cachedGraph) {
+            cachedGraph = graph;
+            jsonNames = new byte[graph.getStationIdLimit()][];
+            csvNames = new byte[graph.getStationIdLimit()][];
+        }
+    }
+
+    /**
+     * The CSV encoding of a station name as an element of a path; see {@link #appendCsvPath}.
+     */
+    private byte[] csvName(Graph graph, int id) throws IOException {
+        if (csvNames[id] == null) {
+            String name = graph.getStationById(id).getName();
+            if (name.indexOf(';') >= 0 || name.indexOf('"') >= 0) {
+                name = '"' + name.replace("\"", "\"\"") + '"';
+            }
+            csvNames[id] = encode(name, false);
+        }
+        return csvNames[id];
+    }
+
+    /**
+     * Encodes {@code name} as the JSON string or CSV field these methods would write, by writing it into
+     * a scratch writer.
+     */
+    private static byte[] encode(String name, boolean json) throws IOException {
+        ByteArrayOutputStream scratch = new ByteArrayOutputStream(name.length() + 8);
+        RouteWriter writer = new RouteWriter(Channels.newChannel(scratch), name.length() * 6 + MAX_ATOM * 2);
+        if (json) {
+            writer.appendJsonString(name);
+        } else {
+            writer.appendCsv(name);
+        }
+        writer.drain();
+        return scratch.toByteArray();
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        put(bytes, 0, bytes.length);
+    }
+
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Puts the character at {@code i} as UTF-8, combining a surrogate pair into one code point, and returns
+     * the index of the last char consumed. The caller has ensured room for four bytes.
+     */
+    private int putUtf8(String value, int i) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+            buffer.put((byte) (0xF0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                    .put((byte) (0x80 | codePoint >> 6 & 0x3F)).put((byte) (0x80 | codePoint & 0x3F));
+            return i + 1;
+        } else if (Character.isSurrogate(c)) {
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+        }
+        return i;
+    }
+
+    private static byte hex(int value) {
+        return (byte) "0123456789abcdef".charAt(value & 0xF);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,484 @@
+package com.example.viennaubahnroutefinder.server;
+
+import com.example.viennaubahnroutefinder.algorithm.AsyncRouteFinder;
+import com.example.viennaubahnroutefinder.algorithm.QueryLog;
+import com.example.viennaubahnroutefinder.algorithm.RouteFinder;
+import com.example.viennaubahnroutefinder.algorithm.RouteMetrics;
+import com.example.viennaubahnroutefinder.algorithm.RouteQuery;
+import com.example.viennaubahnroutefinder.cli.Options;
+import com.example.viennaubahnroutefinder.data.NetworkRegistry;
+import com.example.viennaubahnroutefinder.data.NetworkWatcher;
+import com.example.viennaubahnroutefinder.model.Graph;
+import com.example.viennaubahnroutefinder.model.GraphStore;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless routing service: JSON over the JDK {@link HttpServer}, one virtual thread per request,
+ * no JavaFX involved.
+ *
+ * <p>Networks come from a {@link NetworkRegistry}. The bundled network is registered as {@code vienna},
+ * {@code --data} registers a file as {@code default}, and {@code --networks} registers more files. Route
+ * requests pick one with {@code network=id}, or get the default network. A network is loaded on its first
+ * request and dropped again, least recently used first, when the loaded networks exceed
+ * {@code --memory-budget-mb}. With {@code --watch}, loaded file networks are reloaded whenever their file
+ * changes; requests already running finish on the graph they started with.</p>
+ *
+ * <pre>
+ *   GET /health
+ *   GET /metrics          latency percentiles and work counters per engine and query type
+ *   GET /route/bfs?from=..&amp;to=..
+ *   GET /route/shortest?from=..&amp;to=..
+ *   GET /route/penalty?from=..&amp;to=..&amp;penalty=2.0
+ *   GET /route/all?from=..&amp;to=..
+ *   GET /route/changes?from=..&amp;to=..
+ *   POST /network/close?station=..           closes a station
+ *   POST /network/close?from=..&amp;to=..       closes a connection
+ *   POST /network/open?from=..&amp;to=..&amp;line=4 opens a connection, coloured like the rest of its line
+ * </pre>
+ *
+ * <p>Route endpoints also accept repeated {@code via}, {@code avoid}, {@code avoidLine} and {@code onlyLine}
+ * parameters and a {@code timeoutMs} deadline. Closures and openings publish a new graph version of the
+ * selected network; the shortest-path trees kept for it are repaired rather than rebuilt. They last until the
+ * network is reloaded from its file or dropped from memory. At most {@code --max-concurrent} searches run at once; a
+ * request that cannot get a slot within {@code --queue-timeout-ms} is shed with 503.</p>
+ *
+ * <pre>
+ *   java -m com.example.viennaubahnroutefinder/com.example.viennaubahnroutefinder.server.RoutingServer \
+ *        --port=8080 --max-concurrent=64 --queue-timeout-ms=50 --deadline-ms=2000 [--data=network.csv] [--no-metrics] [--query-log=traffic.qlog] \
+ *        [--networks=vienna-u5=u5.csv,graz=graz.csv] [--default-network=vienna] [--memory-budget-mb=1024] [--watch]
+ * </pre>
+ */
+public class RoutingServer {
+
+    private static final double DEFAULT_PENALTY = 2.0;
+    private static final int RESPONSE_BUFFER_SIZE = 8192;
+
+    private final NetworkRegistry networks;
+    private final String defaultNetwork;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final long queueTimeoutMillis;
+    private final Duration defaultDeadline;
+    private volatile QueryLog queryLog;
+
+    private final LongAdder served = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public RoutingServer(NetworkRegistry networks, String defaultNetwork, InetSocketAddress address,
+                         int maxConcurrent, long queueTimeoutMillis, Duration defaultDeadline) throws IOException {
+        this.networks = networks;
+        this.defaultNetwork = defaultNetwork;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.defaultDeadline = defaultDeadline;
+
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/route/", this::handleRoute);
+        server.createContext("/network/", this::handleNetwork);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * Logs every answered route request, cache hits included, for {@code QueryReplay}; null stops logging.
+     * The caller owns the log.
+     */
+    public void setQueryLog(QueryLog queryLog) {
+        this.queryLog = queryLog;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"status\":\"ok\"")
+                    .append(",\"inFlight\":").append(maxConcurrent - permits.availablePermits())
+                    .append(",\"maxConcurrent\":").append(maxConcurrent)
+                    .append(",\"served\":").append(served.sum())
+                    .append(",\"shed\":").append(shed.sum())
+                    .append(",\"failed\":").append(failed.sum())
+                    .append(",\"defaultNetwork\":");
+            RouteJson.appendString(json, defaultNetwork);
+            json.append(",\"estimatedBytes\":").append(networks.getEstimatedBytes())
+                    .append(",\"memoryBudget\":").append(networks.getMemoryBudget())
+                    .append(",\"networkLoads\":").append(networks.getLoadCount())
+                    .append(",\"networkEvictions\":").append(networks.getEvictionCount())
+                    .append(",\"networks\":[");
+            boolean first = true;
+            for (String id : networks.getIds()) {
+                json.append(first ? "" : ",").append("{\"id\":");
+                RouteJson.appendString(json, id);
+                first = false;
+                NetworkRegistry.Network network = networks.getIfLoaded(id);
+                json.append(",\"loaded\":").append(network != null);
+                if (network != null) {
+                    appendNetworkHealth(json, network);
+                }
+                json.append('}');
+            }
+            send(exchange, 200, json.append("]}").toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void appendNetworkHealth(StringBuilder json, NetworkRegistry.Network network) {
+        try (GraphStore.Snapshot snapshot = network.getGraphStore().acquire()) {
+            json.append(",\"graphVersion\":").append(snapshot.getVersion())
+                    .append(",\"stations\":").append(snapshot.getGraph().getStationCount());
+        }
+        json.append(",\"estimatedBytes\":").append(network.getEstimatedBytes())
+                .append(",\"cacheHitRate\":").append(network.getRouteCache().getStats().getHitRate());
+        NetworkWatcher watcher = network.getWatcher();
+        if (watcher != null) {
+            json.append(",\"reloads\":").append(watcher.getReloadCount())
+                    .append(",\"reloadFailures\":").append(watcher.getFailureCount())
+                    .append(",\"lastReloadMs\":").append(watcher.getLastReloadNanos() / 1e6);
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            send(exchange, 200, RouteJson.metrics(RouteMetrics.global()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleRoute(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, RouteJson.error("Only GET is supported"));
+                return;
+            }
+
+            if (!permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                shed.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, RouteJson.error("Server busy"));
+                return;
+            }
+
+            try {
+                respondWithRoutes(exchange);
+                served.increment();
+            } finally {
+                permits.release();
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (NoSuchElementException e) {
+            sendError(exchange, 404, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.increment();
+            sendError(exchange, 503, "Interrupted");
+        } catch (ExecutionException | RuntimeException e) {
+            failed.increment();
+            sendError(exchange, 500, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends an error response unless a streamed 200 has already begun. Its status can no longer change, so
+     * it is only closed, and the client receives incomplete JSON.
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            System.err.println("Route response to " + exchange.getRequestURI() + " cut short: " + message);
+            return;
+        }
+        send(exchange, status, RouteJson.error(message));
+    }
+
+    private void handleNetwork(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, RouteJson.error("Only POST is supported"));
+                return;
+            }
+            Map<String, List<String>> params = parseParameters(exchange.getRequestURI().getRawQuery());
+            String kind = exchange.getRequestURI().getPath().substring("/network/".length());
+            GraphStore graphStore = network(params).getGraphStore();
+
+            long version;
+            switch (kind) {
+                case "close":
+                    if (params.containsKey("station")) {
+                        version = graphStore.closeStation(existingStation(graphStore, single(params, "station")));
+                    } else {
+                        version = graphStore.closeConnection(existingStation(graphStore, single(params, "from")),
+                                existingStation(graphStore, single(params, "to")));
+                    }
+                    break;
+                case "open":
+                    int line = parseLine(single(params, "line"));
+                    version = graphStore.addSegment(single(params, "from"), single(params, "to"), line,
+                            lineColor(graphStore, line));
+                    break;
+                default: throw new NoSuchElementException("Unknown endpoint /network/" + kind);
+            }
+            send(exchange, 200, "{\"graphVersion\":" + version + "}");
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, RouteJson.error(e.getMessage()));
+        } catch (NoSuchElementException e) {
+            send(exchange, 404, RouteJson.error(e.getMessage()));
+        } catch (RuntimeException e) {
+            failed.increment();
+            send(exchange, 500, RouteJson.error(String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String existingStation(GraphStore graphStore, String name) {
+        try (GraphStore.Snapshot snapshot = graphStore.acquire()) {
+            if (snapshot.getGraph().getStation(name) == null) {
+                throw new NoSuchElementException("Unknown station: " + name);
+            }
+        }
+        return name;
+    }
+
+    private static String lineColor(GraphStore graphStore, int line) {
+        try (GraphStore.Snapshot snapshot = graphStore.acquire()) {
+            for (Graph.Station station : snapshot.getGraph().getAllStations().values()) {
+                for (Graph.Edge edge : station.getConnections().values()) {
+                    if (edge.getLine() == line) {
+                        return edge.getColor();
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("No existing connection on line " + line);
+    }
+
+    private void respondWithRoutes(HttpExchange exchange) throws IOException, InterruptedException, ExecutionException {
+        Map<String, List<String>> params = parseParameters(exchange.getRequestURI().getRawQuery());
+        String kind = exchange.getRequestURI().getPath().substring("/route/".length());
+
+        RouteFinder.Algorithm algorithm;
+        double penalty = 0;
+        switch (kind) {
+            case "bfs": algorithm = RouteFinder.Algorithm.BFS; break;
+            case "shortest": algorithm = RouteFinder.Algorithm.SHORTEST_DISTANCE; break;
+            case "penalty":
+                algorithm = RouteFinder.Algorithm.SHORTEST_DISTANCE;
+                penalty = parseDouble(params, "penalty", DEFAULT_PENALTY);
+                break;
+            case "all": algorithm = RouteFinder.Algorithm.ALL_ROUTES_DFS; break;
+            case "changes": algorithm = RouteFinder.Algorithm.FEWEST_CHANGES; break;
+            default: throw new NoSuchElementException("Unknown endpoint /route/" + kind);
+        }
+
+        NetworkRegistry.Network network = network(params);
+        RouteQuery query = buildQuery(network, params, penalty);
+        Duration deadline = params.containsKey("timeoutMs")
+                ? Duration.ofMillis((long) parseDouble(params, "timeoutMs", 0))
+                : defaultDeadline;
+
+        // Searches run on the request's own virtual thread; the facade only adds deadlines and caching.
+        AsyncRouteFinder routeFinder = new AsyncRouteFinder(network.getGraphStore(), network.getRouteFinder(),
+                network.getRouteCache(), Runnable::run);
+        routeFinder.setQueryLog(queryLog, network.getId());
+        AsyncRouteFinder.Result result = routeFinder.search(algorithm, query, deadline, route -> { }).get();
+        // Streamed with chunked encoding, so an all-routes result is never held as one string.
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (RouteWriter out = new RouteWriter(Channels.newChannel(exchange.getResponseBody()), RESPONSE_BUFFER_SIZE)) {
+            RouteJson.routes(out, algorithm, result.getGraphVersion(), result.isComplete(), result.getRoutes());
+        }
+    }
+
+    private NetworkRegistry.Network network(Map<String, List<String>> params) {
+        List<String> ids = params.get("network");
+        String id = ids == null || ids.isEmpty() || ids.get(0).isBlank() ? defaultNetwork : ids.get(0);
+        try {
+            return networks.get(id);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load network " + id + ": " + e.getMessage(), e);
+        }
+    }
+
+    private RouteQuery buildQuery(NetworkRegistry.Network network, Map<String, List<String>> params, double penalty) {
+        String from = single(params, "from");
+        String to = single(params, "to");
+        RouteQuery.Builder builder = RouteQuery.builder(from, to)
+                .waypoints(params.getOrDefault("via", List.of()))
+                .avoidStations(params.getOrDefault("avoid", List.of()))
+                .lineChangePenalty(penalty);
+        for (String line : params.getOrDefault("avoidLine", List.of())) {
+            builder.avoidLine(parseLine(line));
+        }
+        for (String line : params.getOrDefault("onlyLine", List.of())) {
+            builder.onlyLine(parseLine(line));
+        }
+        RouteQuery query = builder.build();
+
+        try (GraphStore.Snapshot snapshot = network.getGraphStore().acquire()) {
+            Graph graph = snapshot.getGraph();
+            for (String station : query.getStops()) {
+                if (graph.getStation(station) == null) {
+                    throw new NoSuchElementException("Unknown station: " + station);
+                }
+            }
+        }
+        return query;
+    }
+
+    private static String single(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        if (values == null || values.isEmpty() || values.get(0).isBlank()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return values.get(0);
+    }
+
+    private static double parseDouble(Map<String, List<String>> params, String name, double defaultValue) {
+        List<String> values = params.get(name);
+        if (values == null || values.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(values.get(0));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number");
+        }
+    }
+
+    private static int parseLine(String value) {
+        try {
+            return Integer.parseInt(value.startsWith("U") ? value.substring(1) : value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a line: " + value);
+        }
+    }
+
+    static Map<String, List<String>> parseParameters(String rawQuery) {
+        Map<String, List<String>> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options(args);
+        RouteMetrics.global().setEnabled(!options.has("no-metrics"));
+        QueryLog queryLog = options.has("query-log") ? QueryLog.create(Path.of(options.get("query-log", null))) : null;
+
+        NetworkRegistry networks = new NetworkRegistry(options.getLong("memory-budget-mb", 1024) << 20,
+                options.getLong("cache-weight", 1_000_000), RouteFinder::new);
+        networks.registerBundled("vienna");
+        if (options.has("data")) {
+            networks.register("default", Path.of(options.get("data", null)));
+        }
+        for (String network : options.get("networks", "").split(",")) {
+            if (network.isBlank()) {
+                continue;
+            }
+            int eq = network.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("--networks expects id=file.csv pairs: " + network);
+            }
+            networks.register(network.substring(0, eq).trim(), Path.of(network.substring(eq + 1).trim()));
+        }
+        if (options.has("watch")) {
+            networks.setWatch(Duration.ofMillis(options.getLong("watch-quiet-ms", 500)));
+            networks.addWatchListener(new NetworkWatcher.Listener() {
+                @Override
+                public void reloaded(Path file, Graph graph, long nanos) {
+                    System.out.printf("Reloaded %s as version %d in %.1f ms%n", file, graph.getVersion(), nanos / 1e6);
+                }
+
+                @Override
+                public void failed(Path file, Exception e) {
+                    System.err.println("Reloading " + file + " failed, keeping the current version: "
+                            + e.getMessage());
+                }
+            });
+        }
+        String defaultNetwork = options.get("default-network", options.has("data") ? "default" : "vienna");
+        // Load the default network up front so a broken file fails at startup.
+        int stations;
+        try (GraphStore.Snapshot snapshot = networks.get(defaultNetwork).getGraphStore().acquire()) {
+            stations = snapshot.getGraph().getStationCount();
+        }
+
+        RoutingServer server = new RoutingServer(
+                networks,
+                defaultNetwork,
+                new InetSocketAddress(options.get("host", "127.0.0.1"), options.getInt("port", 8080)),
+                options.getInt("max-concurrent", Runtime.getRuntime().availableProcessors() * 4),
+                options.getLong("queue-timeout-ms", 50),
+                Duration.ofMillis(options.getLong("deadline-ms", 2000)));
+        server.setQueryLog(queryLog);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            if (queryLog != null) {
+                try {
+                    queryLog.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }));
+        server.start();
+        System.out.println("Routing service on http://" + options.get("host", "127.0.0.1") + ":" + server.getPort()
+                + " (networks " + networks.getIds() + ", default " + defaultNetwork + " with " + stations + " stations)");
+    }
+}
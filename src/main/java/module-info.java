@@ -1,6 +1,8 @@
 module com.example.viennaubahnroutefinder {
     requires javafx.controls;
     requires javafx.fxml;
+    requires jdk.httpserver;
+    requires jdk.jfr;
 
 
     opens com.example.viennaubahnroutefinder to javafx.fxml;
@@ -11,4 +13,7 @@ module com.example.viennaubahnroutefinder {
     opens com.example.viennaubahnroutefinder.model to javafx.fxml;
     exports com.example.viennaubahnroutefinder.algorithm;
     opens com.example.viennaubahnroutefinder.algorithm to javafx.fxml;
+    exports com.example.viennaubahnroutefinder.data;
+    exports com.example.viennaubahnroutefinder.server;
+    exports com.example.viennaubahnroutefinder.cli;
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+package com.example.viennaubahnroutefinder.algorithm;
+
+import com.example.viennaubahnroutefinder.data.NetworkGenerator;
+import com.example.viennaubahnroutefinder.model.Graph;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the fewest-changes search against a brute-force search over (station, line) states on small
+ * generated networks.
+ */
+class LineGraphIndexTest {
+
+    private static final int QUERIES_PER_NETWORK = 40;
+
+    @Test
+    void matchesBruteForce() {
+        forEachQuery(0, 0, (graph, query) -> assertFewestChanges(graph, query));
+    }
+
+    @Test
+    void matchesBruteForceAvoidingStations() {
+        forEachQuery(0, 6, (graph, query) -> assertFewestChanges(graph, query));
+    }
+
+    @Test
+    void matchesBruteForceThroughWaypoints() {
+        forEachQuery(2, 0, (graph, query) -> assertFewestChanges(graph, query));
+        forEachQuery(1, 4, (graph, query) -> assertFewestChanges(graph, query));
+    }
+
+    @Test
+    void neverMoreChangesThanPenaltyApproximation() {
+        RouteFinder finder = new RouteFinder();
+        forEachQuery(0, 3, (graph, query) -> {
+            RouteFinder.Route exact = finder.findFewestChangesRoute(graph, query);
+            RouteFinder.Route penalized = finder.findShortestDistanceRoute(graph,
+                    query.toBuilder().lineChangePenalty(10_000).build());
+            assertEquals(penalized == null, exact == null, query.toString());
+            if (exact != null) {
+                assertTrue(exact.getLineChanges() <= penalized.getLineChanges(), query.toString());
+            }
+        });
+    }
+
+    private interface QueryCheck {
+        void check(Graph graph, RouteQuery query);
+    }
+
+    private static void forEachQuery(int waypoints, int avoided, QueryCheck check) {
+        for (long seed = 1; seed <= 6; seed++) {
+            Graph graph = NetworkGenerator.builder(60 + 40 * (int) seed).seed(seed).build().toGraph();
+            graph.freeze();
+            List<String> names = new ArrayList<>(graph.getAllStations().keySet());
+            Collections.sort(names);
+            Random random = new Random(seed);
+            for (int i = 0; i < QUERIES_PER_NETWORK; i++) {
+                Collections.shuffle(names, random);
+                RouteQuery.Builder builder = RouteQuery.builder(names.get(0), names.get(1));
+                for (int w = 0; w < waypoints; w++) {
+                    builder.waypoint(names.get(2 + w));
+                }
+                for (int a = 0; a < avoided; a++) {
+                    builder.avoidStation(names.get(2 + waypoints + a));
+                }
+                check.check(graph, builder.build());
+            }
+        }
+    }
+
+    private static void assertFewestChanges(Graph graph, RouteQuery query) {
+        RouteFinder.Route route = new RouteFinder().findFewestChangesRoute(graph, query);
+        int expected = bruteForceChanges(graph, query);
+        if (expected < 0) {
+            assertNull(route, query.toString());
+            return;
+        }
+        assertNotNull(route, query.toString());
+        assertEquals(expected, route.getLineChanges(), query.toString());
+
+        List<Graph.Station> stations = route.getStations();
+        assertEquals(query.getStart(), stations.get(0).getName());
+        assertEquals(query.getEnd(), stations.get(stations.size() - 1).getName());
+        int next = 1;
+        for (Graph.Station station : stations) {
+            assertFalse(query.getAvoidStations().contains(station.getName()), query.toString());
+            if (next < query.getStops().size() - 1 && station.getName().equals(query.getStops().get(next))) {
+                next++;
+            }
+        }
+        assertEquals(query.getStops().size() - 1, next, "waypoints in order for " + query);
+    }
+
+    /**
+     * 0-1 BFS over (leg, station, line of the last edge) states; -1 if the stops cannot be joined.
+     */
+    private static int bruteForceChanges(Graph graph, RouteQuery query) {
+        List<String> stops = query.getStops();
+        int legs = stops.size() - 1;
+        Map<Integer, Integer> lines = new HashMap<>();
+        for (Graph.Station station : graph.getAllStations().values()) {
+            for (Graph.Edge edge : station.getConnections().values()) {
+                lines.putIfAbsent(edge.getLine(), lines.size() + 1);
+            }
+        }
+        // Line slot 0 means no edge taken yet.
+        int slots = lines.size() + 1;
+        int stations = graph.getStationIdLimit();
+        int[] changes = new int[legs * stations * slots];
+        Arrays.fill(changes, Integer.MAX_VALUE);
+
+        int best = Integer.MAX_VALUE;
+        Deque<int[]> queue = new ArrayDeque<>();
+        int first = 0;
+        while (first < legs && stops.get(first).equals(stops.get(first + 1))) {
+            first++;
+        }
+        if (first == legs) {
+            return 0;
+        }
+        int startId = graph.getStation(stops.get(0)).getId();
+        changes[(first * stations + startId) * slots] = 0;
+        queue.add(new int[]{first, startId, 0, 0});
+        while (!queue.isEmpty()) {
+            int[] state = queue.pollFirst();
+            int leg = state[0], station = state[1], slot = state[2], cost = state[3];
+            if (cost > changes[(leg * stations + station) * slots + slot]) {
+                continue;
+            }
+            Graph.Station current = graph.getStationById(station);
+            for (Graph.Edge edge : current.getConnections().values()) {
+                Graph.Station destination = edge.getDestination();
+                if (query.getAvoidStations().contains(destination.getName())) {
+                    continue;
+                }
+                int nextSlot = lines.get(edge.getLine());
+                int nextCost = cost + (slot == 0 || slot == nextSlot ? 0 : 1);
+                int nextLeg = leg;
+                while (nextLeg < legs && destination.getName().equals(stops.get(nextLeg + 1))) {
+                    nextLeg++;
+                }
+                if (nextLeg == legs) {
+                    best = Math.min(best, nextCost);
+                    continue;
+                }
+                int index = (nextLeg * stations + destination.getId()) * slots + nextSlot;
+                if (nextCost < changes[index]) {
+                    changes[index] = nextCost;
+                    if (nextCost == cost) {
+                        queue.addFirst(new int[]{nextLeg, destination.getId(), nextSlot, nextCost});
+                    } else {
+                        queue.addLast(new int[]{nextLeg, destination.getId(), nextSlot, nextCost});
+                    }
+                }
+            }
+        }
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.viennaubahnroutefinder.model;
+
+import com.example.viennaubahnroutefinder.data.NetworkGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationIndexTest {
+
+    private static final StationIndex VIENNA = new StationIndex(List.of(
+            "Südtiroler Platz", "Platz der Republik", "Karlsplatz", "Stephansplatz", "Schwedenplatz",
+            "Währinger Straße", "Schottentor", "Kagran", "Kagraner Platz", "Spittelau"));
+
+    @Test
+    void normalizesDiacriticsCaseAndPunctuation() {
+        assertEquals("sudtiroler platz", StationIndex.normalize("Südtiroler Platz"));
+        assertEquals("wahringer strasse", StationIndex.normalize("Währinger Straße"));
+        assertEquals("michelbeuern akh", StationIndex.normalize("  Michelbeuern - AKH. "));
+    }
+
+    @Test
+    void findsNamesWithoutDiacritics() {
+        assertEquals(List.of("Südtiroler Platz"), VIENNA.search("sudtiroler", 10));
+        assertEquals(List.of("Währinger Straße"), VIENNA.search("wahringer str", 10));
+    }
+
+    @Test
+    void matchesLaterWordsAfterNamePrefixes() {
+        List<String> results = VIENNA.search("platz", 10);
+        assertEquals("Platz der Republik", results.get(0));
+        assertTrue(results.containsAll(List.of("Südtiroler Platz", "Kagraner Platz")), results.toString());
+        assertFalse(results.contains("Karlsplatz"), "platz is not a word start in Karlsplatz");
+
+        assertEquals(List.of("Kagran", "Kagraner Platz"), VIENNA.search("kagran", 10));
+    }
+
+    @Test
+    void matchesOneEditOnShortQueries() {
+        assertEquals(List.of("Karlsplatz"), VIENNA.search("kxrl", 10));
+        assertEquals(List.of("Schottentor"), VIENNA.search("schotentor", 10));
+        assertTrue(VIENNA.search("kxrx", 10).isEmpty(), "two edits on a four-letter query");
+    }
+
+    @Test
+    void matchesTwoEditsOnLongQueries() {
+        assertEquals(List.of("Stephansplatz"), VIENNA.search("stefansplatz", 10));
+        assertEquals("Schwedenplatz", VIENNA.search("schwdnplatz", 10).get(0));
+    }
+
+    @Test
+    void ranksExactMatchesBeforeFuzzyOnes() {
+        assertEquals(List.of("Schwedenplatz", "Schottentor"), VIENNA.search("schw", 10));
+        assertEquals(List.of("Schwedenplatz"), VIENNA.search("schw", 1));
+    }
+
+    @Test
+    void containsExactNamesOnly() {
+        assertTrue(VIENNA.contains("Südtiroler Platz"));
+        assertFalse(VIENNA.contains("Sudtiroler Platz"), "same key, different name");
+        assertFalse(VIENNA.contains("Westbahnhof"));
+        assertFalse(VIENNA.contains(null));
+        assertEquals(10, VIENNA.size());
+    }
+
+    @Test
+    void searchesFiftyThousandStationsInUnderAMillisecond() {
+        Graph graph = NetworkGenerator.builder(50_000).seed(1).build().toGraph();
+        StationIndex index = StationIndex.of(graph);
+        List<String> names = index.getNames();
+        assertTrue(index.size() > 45_000, "generated " + index.size());
+
+        Random random = new Random(7);
+        String[] kinds = {"prefix", "word", "fuzzy"};
+        for (String kind : kinds) {
+            long total = 0;
+            int queries = 2000;
+            for (int i = -queries; i < queries; i++) {
+                String key = StationIndex.normalize(names.get(random.nextInt(names.size())));
+                String query;
+                switch (kind) {
+                    case "prefix":
+                        query = key.substring(0, Math.min(key.length(), 4));
+                        break;
+                    case "word":
+                        query = key.substring(key.indexOf(' ') + 1);
+                        break;
+                    default:
+                        query = key.substring(0, 2) + "x" + key.substring(3);
+                        break;
+                }
+                long start = System.nanoTime();
+                List<String> results = index.search(query, 10);
+                // The first half warms up the JIT.
+                if (i >= 0) {
+                    total += System.nanoTime() - start;
+                }
+                assertFalse(results.isEmpty(), query);
+            }
+            double averageMillis = total / 1e6 / queries;
+            assertTrue(averageMillis < 1, kind + " search took " + averageMillis + " ms on average");
+        }
+    }
+}